@@ -3,12 +3,20 @@ FastAPI backend for audio transcription and note generation
 Handles Gemini API calls for audio processing
 """
 
-from fastapi import FastAPI, File, UploadFile, HTTPException, Form
-from fastapi.responses import JSONResponse
+from fastapi import FastAPI, File, UploadFile, HTTPException, Form, Header, Request
+from fastapi.responses import JSONResponse, StreamingResponse
 from fastapi.middleware.cors import CORSMiddleware
+from concurrent.futures import ThreadPoolExecutor
+import asyncio
+import hashlib
 import httpx
 import json
 import os
+import re
+import shutil
+import threading
+import time
+import uuid
 from pathlib import Path
 import tempfile
 
@@ -114,16 +122,32 @@ def get_mime_type(filename: str) -> str:
     return mime_types.get(ext, "audio/mpeg")
 
 
-def upload_audio_file(file_content: bytes, mime_type: str, filename: str) -> str:
-    """Upload audio file using Gemini Files API (resumable upload)"""
+def read_blocks(path: Path, block_size: int = 1024 * 1024, on_progress=None):
+    """Yield a file's content in blocks, so large files are never read into memory whole"""
+    done = 0
+    with open(path, "rb") as f:
+        while block := f.read(block_size):
+            yield block
+            done += len(block)
+            if on_progress:
+                on_progress(done)
+
+
+def upload_audio_file(file_content: bytes | Path, mime_type: str, filename: str, on_progress=None) -> str:
+    """Upload audio file using Gemini Files API (resumable upload)
+
+    file_content is either the audio itself or the path of a file holding it;
+    for a path, on_progress is called with the number of bytes sent so far.
+    """
     
+    size = file_content.stat().st_size if isinstance(file_content, Path) else len(file_content)
     try:
         # Step 1: Initialize resumable upload
         init_headers = {
             "X-Goog-Upload-Protocol": "resumable",
             "X-Goog-Upload-Command": "start",
             "X-Goog-Upload-Header-Content-Type": mime_type,
-            "X-Goog-Upload-Header-Content-Length": str(len(file_content)),
+            "X-Goog-Upload-Header-Content-Length": str(size),
             "Content-Type": "application/json",
         }
         
@@ -161,11 +185,17 @@ def upload_audio_file(file_content: bytes, mime_type: str, filename: str) -> str
             "Content-Type": mime_type,
         }
         
-        print(f"[UPLOAD] Uploading file content ({len(file_content)} bytes)")
+        if isinstance(file_content, Path):
+            upload_headers["Content-Length"] = str(size)
+            content = read_blocks(file_content, on_progress=on_progress)
+        else:
+            content = file_content
+        
+        print(f"[UPLOAD] Uploading file content ({size} bytes)")
         response = httpx.post(
             upload_url,
             headers=upload_headers,
-            content=file_content,
+            content=content,
             timeout=60.0
         )
         
@@ -355,6 +385,488 @@ async def audio_to_notes(file: UploadFile = File(...)):
         )
 
 
+# Chunked uploads: POST /uploads, then PUT /uploads/{id}?offset=N for each chunk, then
+# POST /uploads/{id}/finalize. Received bytes are kept on disk, and the upload id is
+# derived from the file's checksum, so starting the same file again resumes it.
+UPLOAD_DIR = Path(tempfile.gettempdir()) / "lecturly-uploads"
+UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024
+MAX_UPLOAD_SIZE = 2 * 1024 * 1024 * 1024  # Gemini Files API limit
+upload_locks: dict[str, asyncio.Lock] = {}
+
+
+def upload_paths(upload_id: str) -> tuple[Path, Path]:
+    """Data and metadata files of an upload"""
+    if not re.fullmatch(r"[0-9a-f]{32}", upload_id):
+        raise HTTPException(status_code=404, detail="Unknown upload")
+    return UPLOAD_DIR / f"{upload_id}.part", UPLOAD_DIR / f"{upload_id}.json"
+
+
+def load_upload(upload_id: str) -> dict:
+    """Metadata of an upload, with the number of bytes received so far as offset"""
+    part_path, meta_path = upload_paths(upload_id)
+    if not meta_path.exists():
+        raise HTTPException(status_code=404, detail="Unknown upload")
+    info = json.loads(meta_path.read_text())
+    info["upload_id"] = upload_id
+    info["offset"] = part_path.stat().st_size if part_path.exists() else 0
+    return info
+
+
+def upload_status(info: dict) -> dict:
+    return {
+        "upload_id": info["upload_id"],
+        "filename": info["filename"],
+        "size": info["size"],
+        "offset": info["offset"],
+        "chunk_size": UPLOAD_CHUNK_SIZE,
+    }
+
+
+def file_sha256(path: Path) -> str:
+    digest = hashlib.sha256()
+    for block in read_blocks(path):
+        digest.update(block)
+    return digest.hexdigest()
+
+
+@app.post("/uploads")
+async def start_upload(request: Request):
+    """
+    Start a chunked upload, or pick up an unfinished one of the same file
+    
+    Accepts: JSON with filename, size and sha256 (hex) of the whole file
+    Returns: JSON with upload_id, and offset, the number of bytes already received
+    """
+    
+    body = await request.json()
+    filename = body.get("filename")
+    size = body.get("size")
+    sha256 = str(body.get("sha256", "")).lower()
+    if not filename:
+        raise HTTPException(status_code=400, detail="No filename provided")
+    if not isinstance(size, int) or size <= 0:
+        raise HTTPException(status_code=400, detail="Empty file")
+    if size > MAX_UPLOAD_SIZE:
+        raise HTTPException(status_code=413, detail="File too large (max 2GB)")
+    if not re.fullmatch(r"[0-9a-f]{64}", sha256):
+        raise HTTPException(status_code=400, detail="sha256 must be 64 hex digits")
+    
+    UPLOAD_DIR.mkdir(parents=True, exist_ok=True)
+    upload_id = hashlib.sha256(f"{sha256}:{size}:{filename}".encode()).hexdigest()[:32]
+    part_path, meta_path = upload_paths(upload_id)
+    if not meta_path.exists():
+        meta_path.write_text(json.dumps({
+            "filename": filename,
+            "size": size,
+            "sha256": sha256,
+            "mime_type": get_mime_type(filename),
+        }))
+    
+    info = load_upload(upload_id)
+    print(f"[CHUNKED] Upload {upload_id} for {filename}: {info['offset']}/{size} bytes received")
+    return upload_status(info)
+
+
+@app.get("/uploads/{upload_id}")
+async def get_upload(upload_id: str):
+    """Progress of a chunked upload"""
+    return upload_status(load_upload(upload_id))
+
+
+@app.put("/uploads/{upload_id}")
+async def put_upload_chunk(upload_id: str, offset: int, request: Request):
+    """
+    Append a chunk at the given byte offset
+    
+    The body is the raw chunk; an X-Chunk-SHA256 header (hex) is checked when present.
+    Answers 409 with the current offset if the chunk does not start there, and
+    422 if the checksum does not match, in which case the chunk is discarded.
+    """
+    
+    lock = upload_locks.setdefault(upload_id, asyncio.Lock())
+    async with lock:
+        info = load_upload(upload_id)
+        current = info["offset"]
+        if offset < current:
+            # A chunk sent again because its answer was lost; it is already here
+            return upload_status(info)
+        if offset > current:
+            return JSONResponse(status_code=409, content={
+                "detail": f"Expected offset {current}",
+                "offset": current,
+            })
+        
+        part_path, _ = upload_paths(upload_id)
+        digest = hashlib.sha256()
+        written = 0
+        try:
+            with open(part_path, "ab") as f:
+                async for block in request.stream():
+                    if current + written + len(block) > info["size"]:
+                        raise HTTPException(status_code=413, detail="Chunk goes past the end of the file")
+                    digest.update(block)
+                    f.write(block)
+                    written += len(block)
+            expected = request.headers.get("X-Chunk-SHA256")
+            if expected and digest.hexdigest() != expected.lower():
+                raise HTTPException(status_code=422, detail="Chunk checksum mismatch")
+        except BaseException:
+            # Never keep part of a chunk, so the offset always sits on a chunk boundary
+            with open(part_path, "ab") as f:
+                f.truncate(current)
+            raise
+        
+        info["offset"] = current + written
+        return upload_status(info)
+
+
+@app.post("/uploads/{upload_id}/finalize")
+async def finalize_upload(upload_id: str):
+    """
+    Check a completed chunked upload and convert it to lecture notes
+    
+    Returns: the same JSON as /audio-to-notes
+    """
+    
+    try:
+        info = load_upload(upload_id)
+        part_path, meta_path = upload_paths(upload_id)
+        if info["offset"] != info["size"]:
+            raise HTTPException(
+                status_code=409,
+                detail=f"Upload incomplete: {info['offset']} of {info['size']} bytes received"
+            )
+        if file_sha256(part_path) != info["sha256"]:
+            part_path.unlink(missing_ok=True)
+            raise HTTPException(status_code=422, detail="File checksum mismatch; upload it again")
+        
+        print(f"Processing file: {info['filename']} ({info['size']} bytes, {info['mime_type']})")
+        
+        file_uri = upload_audio_file(part_path, info["mime_type"], info["filename"])
+        print(f"Uploaded file: {file_uri}")
+        
+        notes = generate_notes_from_audio(file_uri, info["mime_type"])
+        
+        part_path.unlink(missing_ok=True)
+        meta_path.unlink(missing_ok=True)
+        upload_locks.pop(upload_id, None)
+        return JSONResponse({
+            "success": True,
+            "notes": notes,
+            "filename": info["filename"],
+            "mime_type": info["mime_type"]
+        })
+    
+    except HTTPException:
+        raise
+    except Exception as e:
+        print(f"ERROR in finalize_upload: {str(e)}")
+        import traceback
+        traceback.print_exc()
+        raise HTTPException(
+            status_code=500,
+            detail=f"Unexpected error: {str(e)}"
+        )
+
+
+# Jobs: POST /jobs (multipart, like /audio-to-notes) or POST /uploads/{id}/jobs return
+# a job id at once and the notes are generated in the background. Progress is
+# available from GET /jobs/{id} or as server-sent events from GET /jobs/{id}/events,
+# and the notes from GET /jobs/{id}/result until the client deletes the job.
+# Jobs are kept on disk, and ones a restart interrupted are started again.
+JOB_DIR = Path(tempfile.gettempdir()) / "lecturly-jobs"
+JOB_WORKERS = int(os.environ.get("LECTURLY_JOB_WORKERS", "3"))
+JOB_RETENTION_SECONDS = 7 * 24 * 3600  # Finished jobs nobody collected
+JOB_EVENT_INTERVAL = 0.5
+FINISHED_STATES = ("done", "failed")
+
+jobs: dict[str, dict] = {}
+jobs_lock = threading.Lock()
+job_executor = ThreadPoolExecutor(max_workers=JOB_WORKERS, thread_name_prefix="job")
+
+
+def job_path(job_id: str) -> Path:
+    if not re.fullmatch(r"[0-9a-f]{32}", job_id):
+        raise HTTPException(status_code=404, detail="Unknown job")
+    return JOB_DIR / f"{job_id}.json"
+
+
+def save_job(job: dict):
+    """Write a job to disk; called with jobs_lock held"""
+    job["updated"] = time.time()
+    path = job_path(job["job_id"])
+    temp = path.with_suffix(".tmp")
+    temp.write_text(json.dumps(job))
+    temp.replace(path)
+
+
+class JobCancelled(Exception):
+    """The job was deleted while it was running"""
+
+
+def update_job(job_id: str, **changes):
+    with jobs_lock:
+        job = jobs.get(job_id)
+        if job is None:
+            raise JobCancelled(job_id)
+        job.update(changes)
+        save_job(job)
+
+
+def remove_job_files(job: dict):
+    """Delete a job's audio, and the chunked upload it came from"""
+    Path(job["audio_path"]).unlink(missing_ok=True)
+    if job["upload_id"]:
+        for path in upload_paths(job["upload_id"]):
+            path.unlink(missing_ok=True)
+        upload_locks.pop(job["upload_id"], None)
+
+
+def get_job(job_id: str) -> dict:
+    job_path(job_id)
+    with jobs_lock:
+        job = jobs.get(job_id)
+        if job is None:
+            raise HTTPException(status_code=404, detail="Unknown job")
+        return dict(job)
+
+
+def job_status(job: dict) -> dict:
+    """A job as reported to clients, without the notes"""
+    return {
+        "job_id": job["job_id"],
+        "filename": job["filename"],
+        "state": job["state"],
+        "stage": job["stage"],
+        "progress": job["progress"],
+        "error": job.get("error"),
+    }
+
+
+def find_job_by_key(idempotency_key: str | None) -> dict | None:
+    """The job an earlier request with the same Idempotency-Key created; called with jobs_lock held"""
+    if not idempotency_key:
+        return None
+    return next((job for job in jobs.values() if job.get("idempotency_key") == idempotency_key), None)
+
+
+def start_job(filename: str, mime_type: str, audio_path: Path, size: int,
+              sha256: str | None = None, upload_id: str | None = None,
+              idempotency_key: str | None = None) -> dict:
+    """Record a new job and queue it, unless a retried request already did"""
+    job = {
+        "job_id": uuid.uuid4().hex,
+        "filename": filename,
+        "mime_type": mime_type,
+        "audio_path": str(audio_path),
+        "size": size,
+        "sha256": sha256,
+        "upload_id": upload_id,
+        "idempotency_key": idempotency_key,
+        "state": "queued",
+        "stage": "Waiting to start",
+        "progress": 0.0,
+        "error": None,
+        "notes": None,
+        "created": time.time(),
+    }
+    with jobs_lock:
+        existing = find_job_by_key(idempotency_key)
+        if existing is None:
+            jobs[job["job_id"]] = job
+            save_job(job)
+    if existing:
+        # A retry of a request whose answer was lost; its copy of the audio is not needed
+        if upload_id is None:
+            audio_path.unlink(missing_ok=True)
+        print(f"[JOB] {existing['job_id']} already created for this request")
+        return existing
+    job_executor.submit(run_job, job["job_id"])
+    print(f"[JOB] {job['job_id']} queued for {filename}")
+    return job
+
+
+def run_job(job_id: str):
+    """Generate the notes for a job; runs on a worker thread"""
+    with jobs_lock:
+        if job_id not in jobs:
+            return  # Deleted while queued
+        job = dict(jobs[job_id])
+    audio_path = Path(job["audio_path"])
+    try:
+        if job["sha256"]:
+            update_job(job_id, state="running", stage="Checking upload", progress=0.0)
+            if file_sha256(audio_path) != job["sha256"]:
+                audio_path.unlink(missing_ok=True)
+                raise HTTPException(status_code=422, detail="File checksum mismatch; upload it again")
+        
+        update_job(job_id, state="running", stage="Uploading audio to Gemini", progress=0.0)
+        size = job["size"]
+        file_uri = upload_audio_file(
+            audio_path, job["mime_type"], job["filename"],
+            on_progress=lambda sent: update_job(job_id, progress=round(0.5 * sent / size, 3))
+        )
+        
+        update_job(job_id, stage="Generating notes", progress=0.5)
+        notes = generate_notes_from_audio(file_uri, job["mime_type"])
+        
+        update_job(job_id, state="done", stage="Done", progress=1.0, notes=notes)
+        print(f"[JOB] {job_id} done")
+    except JobCancelled:
+        print(f"[JOB] {job_id} cancelled")
+    except Exception as e:
+        error = e.detail if isinstance(e, HTTPException) else str(e)
+        print(f"[JOB] {job_id} failed: {error}")
+        try:
+            update_job(job_id, state="failed", stage="Failed", error=error)
+        except JobCancelled:
+            print(f"[JOB] {job_id} cancelled")
+    
+    # The audio is only needed again if the job has to be rerun
+    remove_job_files(job)
+
+
+def load_jobs():
+    """Read jobs kept from earlier runs, requeue unfinished ones and drop stale ones"""
+    JOB_DIR.mkdir(parents=True, exist_ok=True)
+    for path in JOB_DIR.glob("*.json"):
+        try:
+            job = json.loads(path.read_text())
+        except (OSError, ValueError):
+            continue
+        if job["state"] in FINISHED_STATES and time.time() - job["updated"] > JOB_RETENTION_SECONDS:
+            path.unlink(missing_ok=True)
+            remove_job_files(job)
+            continue
+        jobs[job["job_id"]] = job
+        if job["state"] not in FINISHED_STATES:
+            print(f"[JOB] {job['job_id']} was interrupted, starting it again")
+            job.update(state="queued", stage="Waiting to start", progress=0.0)
+            job_executor.submit(run_job, job["job_id"])
+
+
+load_jobs()
+
+
+@app.post("/jobs")
+async def create_job(file: UploadFile = File(...), idempotency_key: str | None = Header(default=None)):
+    """
+    Start converting an audio file to notes in the background
+    
+    Accepts: the same multipart upload as /audio-to-notes, and optionally an
+    Idempotency-Key header; a request repeating a key gets the job already created for it
+    Returns: the job's status, including job_id
+    """
+    
+    if not file.filename:
+        raise HTTPException(status_code=400, detail="No filename provided")
+    with jobs_lock:
+        existing = find_job_by_key(idempotency_key)
+    if existing:
+        return job_status(existing)
+    
+    audio_path = JOB_DIR / f"{uuid.uuid4().hex}.audio"
+    with open(audio_path, "wb") as f:
+        shutil.copyfileobj(file.file, f)
+    size = audio_path.stat().st_size
+    if size == 0:
+        audio_path.unlink(missing_ok=True)
+        raise HTTPException(status_code=400, detail="Empty file")
+    
+    job = start_job(file.filename, get_mime_type(file.filename), audio_path, size,
+                    idempotency_key=idempotency_key)
+    return job_status(job)
+
+
+@app.post("/uploads/{upload_id}/jobs")
+async def create_job_from_upload(upload_id: str, idempotency_key: str | None = Header(default=None)):
+    """
+    Start converting a completed chunked upload to notes in the background
+    
+    Accepts: optionally an Idempotency-Key header, as for POST /jobs
+    Returns: the job's status, including job_id
+    """
+    
+    # The upload is gone once a job created by an earlier attempt has finished
+    with jobs_lock:
+        existing = find_job_by_key(idempotency_key)
+    if existing:
+        return job_status(existing)
+    info = load_upload(upload_id)
+    if info["offset"] != info["size"]:
+        raise HTTPException(
+            status_code=409,
+            detail=f"Upload incomplete: {info['offset']} of {info['size']} bytes received"
+        )
+    part_path, _ = upload_paths(upload_id)
+    job = start_job(info["filename"], info["mime_type"], part_path, info["size"],
+                    sha256=info["sha256"], upload_id=upload_id, idempotency_key=idempotency_key)
+    return job_status(job)
+
+
+@app.get("/jobs/{job_id}")
+async def get_job_status(job_id: str):
+    """Stage and progress (0 to 1) of a job"""
+    return job_status(get_job(job_id))
+
+
+@app.get("/jobs/{job_id}/events")
+async def job_events(job_id: str):
+    """The job's status as server-sent events, one whenever it changes, until it finishes"""
+    get_job(job_id)
+    
+    async def events():
+        last = None
+        while True:
+            status = job_status(get_job(job_id))
+            if status != last:
+                yield f"data: {json.dumps(status)}\n\n"
+                last = status
+            if status["state"] in FINISHED_STATES:
+                return
+            await asyncio.sleep(JOB_EVENT_INTERVAL)
+    
+    return StreamingResponse(events(), media_type="text/event-stream")
+
+
+@app.get("/jobs/{job_id}/result")
+async def get_job_result(job_id: str):
+    """
+    Notes of a finished job, in the same JSON as /audio-to-notes
+    
+    Answers 409 while the job is still running and 500 with its error if it failed.
+    The result is kept until the job is deleted.
+    """
+    
+    job = get_job(job_id)
+    if job["state"] == "failed":
+        raise HTTPException(status_code=500, detail=job["error"])
+    if job["state"] != "done":
+        return JSONResponse(status_code=409, content=job_status(job))
+    return JSONResponse({
+        "success": True,
+        "notes": job["notes"],
+        "filename": job["filename"],
+        "mime_type": job["mime_type"]
+    })
+
+
+@app.delete("/jobs/{job_id}")
+async def delete_job(job_id: str):
+    """
+    Forget a job once its result has been collected, or cancel one still running
+    
+    A running job stops at its next progress update; a Gemini request already
+    under way is finished, but its result is dropped.
+    """
+    job = get_job(job_id)
+    with jobs_lock:
+        jobs.pop(job_id, None)
+        job_path(job_id).unlink(missing_ok=True)
+    remove_job_files(job)
+    return {"deleted": job_id}
+
+
 @app.post("/health")
 async def health_check():
     """Health check endpoint"""
@@ -369,6 +881,8 @@ async def root():
         "version": "1.0.0",
         "endpoints": {
             "audio_to_notes": "POST /audio-to-notes - Convert audio to lecture notes",
+            "uploads": "POST /uploads, PUT /uploads/{id}?offset=N, POST /uploads/{id}/finalize - Resumable chunked upload",
+            "jobs": "POST /jobs or POST /uploads/{id}/jobs, then GET /jobs/{id}, /jobs/{id}/events, /jobs/{id}/result - Background note generation",
             "health": "POST /health - Health check"
         }
     }
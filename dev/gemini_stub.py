@@ -0,0 +1,201 @@
+"""
+Local stand-in for the Gemini generateContent API, for trying the chat
+client without an API key or network.
+
+Run:   python3 dev/gemini_stub.py [--port 8765] [--delay 0.05]
+Then:  -Dlecturly.gemini.baseUrl=http://localhost:8765/v1beta
+
+Serves POST /v1beta/models/<model>:generateContent and
+:streamGenerateContent?alt=sse. The reply echoes the last user message and
+says how the notes context arrived, streamed one word per event with
+--delay seconds between events. Send a message containing "stub-error" to
+get an HTTP 500, or "stub-flaky" to get a 503 with Retry-After: 1 on the
+first two attempts of that message.
+
+Also serves the context cache: POST /v1beta/cachedContents, and GET, PATCH
+(ttl) and DELETE on /v1beta/cachedContents/<id>. Entries expire after their
+ttl; referencing a missing or expired entry answers 403 like the real API.
+"""
+
+import argparse
+import json
+import threading
+import time
+import uuid
+from datetime import datetime, timezone
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+from urllib.parse import urlparse
+
+DELAY = 0.05
+CACHE = {}
+CACHE_LOCK = threading.Lock()
+FLAKY_ATTEMPTS = {}
+
+
+def instruction_text(content):
+    return "".join(part.get("text", "") for part in (content or {}).get("parts", []))
+
+
+def parse_ttl(ttl):
+    return float(ttl.rstrip("s")) if ttl else 3600.0
+
+
+def cache_entry_json(name, entry):
+    expire = datetime.fromtimestamp(entry["expires"], timezone.utc).isoformat().replace("+00:00", "Z")
+    return {"name": name, "model": entry["model"], "expireTime": expire,
+            "usageMetadata": {"totalTokenCount": len(entry["instruction"]) // 4}}
+
+
+def live_entry(name):
+    with CACHE_LOCK:
+        entry = CACHE.get(name)
+        if entry and entry["expires"] < time.time():
+            del CACHE[name]
+            entry = None
+        return entry
+
+
+def context_note(request):
+    if "cachedContent" in request:
+        entry = live_entry(request["cachedContent"])
+        return None if entry is None else f"[context: cached, {len(entry['instruction'])} chars]"
+    if "systemInstruction" in request:
+        return f"[context: inline, {len(instruction_text(request['systemInstruction']))} chars]"
+    return "[context: none]"
+
+
+def reply_for(request, note):
+    contents = request.get("contents", [])
+    message = ""
+    for content in reversed(contents):
+        if content.get("role") == "user":
+            message = "".join(part.get("text", "") for part in content.get("parts", []))
+            break
+    return f"Stub reply to: {message}. {note} " + "This answer is streamed one word at a time. " * 3
+
+
+def chunk(text, finish=None):
+    candidate = {"content": {"role": "model", "parts": [{"text": text}]}, "index": 0}
+    if finish:
+        candidate["finishReason"] = finish
+    return {"candidates": [candidate], "modelVersion": "stub"}
+
+
+class StubHandler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+
+    def do_POST(self):
+        path = urlparse(self.path).path
+        request = self.read_json()
+        if path.endswith("/cachedContents"):
+            self.create_cache(request)
+            return
+        note = context_note(request)
+        if note is None:
+            self.send_json(403, {"error": {"code": 403, "message": "CachedContent not found (or permission denied)",
+                                           "status": "PERMISSION_DENIED"}})
+            return
+        text = reply_for(request, note)
+
+        if "stub-error" in text:
+            self.send_json(500, {"error": {"code": 500, "message": "stub error", "status": "INTERNAL"}})
+        elif "stub-flaky" in text and self.flaky_attempt(text) <= 2:
+            self.send_json(503, {"error": {"code": 503, "message": "The model is overloaded.", "status": "UNAVAILABLE"}},
+                           {"Retry-After": "1"})
+        elif path.endswith(":streamGenerateContent"):
+            self.stream(text)
+        elif path.endswith(":generateContent"):
+            self.send_json(200, chunk(text, "STOP"))
+        else:
+            self.send_json(404, {"error": {"code": 404, "message": f"unknown path {path}"}})
+
+    def do_GET(self):
+        if "/cachedContents/" not in self.path:
+            self.send_json(404, {"error": {"code": 404, "message": f"unknown path {self.path}"}})
+            return
+        name = self.cache_name()
+        entry = live_entry(name)
+        if entry is None:
+            self.send_json(403, {"error": {"code": 403, "message": "CachedContent not found"}})
+        else:
+            self.send_json(200, cache_entry_json(name, entry))
+
+    def do_PATCH(self):
+        name = self.cache_name()
+        request = self.read_json()
+        entry = live_entry(name)
+        if entry is None:
+            self.send_json(403, {"error": {"code": 403, "message": "CachedContent not found"}})
+            return
+        entry["expires"] = time.time() + parse_ttl(request.get("ttl"))
+        self.send_json(200, cache_entry_json(name, entry))
+
+    def do_DELETE(self):
+        name = self.cache_name()
+        with CACHE_LOCK:
+            CACHE.pop(name, None)
+        self.send_json(200, {})
+
+    def create_cache(self, request):
+        name = "cachedContents/" + uuid.uuid4().hex[:12]
+        entry = {"model": request.get("model", ""),
+                 "instruction": instruction_text(request.get("systemInstruction")),
+                 "expires": time.time() + parse_ttl(request.get("ttl"))}
+        with CACHE_LOCK:
+            CACHE[name] = entry
+        self.send_json(200, cache_entry_json(name, entry))
+
+    def cache_name(self):
+        path = urlparse(self.path).path
+        return path[path.index("cachedContents/"):]
+
+    def read_json(self):
+        length = int(self.headers.get("Content-Length", 0))
+        return json.loads(self.rfile.read(length) or b"{}")
+
+    def flaky_attempt(self, text):
+        with CACHE_LOCK:
+            FLAKY_ATTEMPTS[text] = FLAKY_ATTEMPTS.get(text, 0) + 1
+            return FLAKY_ATTEMPTS[text]
+
+    def send_json(self, status, body, headers=None):
+        data = json.dumps(body).encode()
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json")
+        for key, value in (headers or {}).items():
+            self.send_header(key, value)
+        self.send_header("Content-Length", str(len(data)))
+        self.end_headers()
+        self.wfile.write(data)
+
+    def stream(self, text):
+        self.send_response(200)
+        self.send_header("Content-Type", "text/event-stream")
+        self.send_header("Connection", "close")
+        self.end_headers()
+        words = text.split(" ")
+        for i, word in enumerate(words):
+            piece = word if i == len(words) - 1 else word + " "
+            finish = "STOP" if i == len(words) - 1 else None
+            self.wfile.write(f"data: {json.dumps(chunk(piece, finish))}\r\n\r\n".encode())
+            self.wfile.flush()
+            time.sleep(DELAY)
+        self.close_connection = True
+
+    def log_message(self, format, *args):
+        print(f"[stub] {self.command} {self.path}")
+
+
+def main():
+    global DELAY
+    parser = argparse.ArgumentParser(description="Local Gemini API stub")
+    parser.add_argument("--port", type=int, default=8765)
+    parser.add_argument("--delay", type=float, default=DELAY, help="seconds between streamed events")
+    args = parser.parse_args()
+    DELAY = args.delay
+    print(f"Gemini stub on http://localhost:{args.port}/v1beta")
+    ThreadingHTTPServer(("127.0.0.1", args.port), StubHandler).serve_forever()
+
+
+if __name__ == "__main__":
+    main()
@@ -5,6 +5,7 @@ module org.example.lecturly {
     requires org.controlsfx.controls;
     requires com.google.gson;
     requires java.net.http;
+    requires java.desktop;
 
     opens org.example.lecturly to javafx.fxml, com.google.gson;
     exports org.example.lecturly;
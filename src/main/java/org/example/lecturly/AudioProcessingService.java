@@ -4,11 +4,34 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 /**
  * AudioProcessingService acts as a client for the FastAPI backend.
@@ -23,10 +46,71 @@ public class AudioProcessingService {
     private HttpClient httpClient;
     private Gson gson;
     private static final String FASTAPI_BACKEND = "http://localhost:8000";
+    // Gemini bills 32 tokens per second of audio; at a typical 128 kbit/s that is one token per 500 bytes
+    private static final int AUDIO_BYTES_PER_TOKEN = 500;
+    // Larger files go up in chunks of this size, which can be resumed
+    private static final String CHUNK_MEGABYTES_PROPERTY = "lecturly.audio.chunkMegabytes";
+    private static final int DEFAULT_CHUNK_MEGABYTES = 8;
+    // A corrupted chunk is sent again, but not forever
+    private static final int MAX_CHUNK_MISMATCHES = 3;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(1);
+    // Requests carrying audio get long enough to send it at 256 kbit/s, so slow links do not time out
+    private static final long MIN_UPLOAD_BYTES_PER_SECOND = 32 * 1024;
+    private static final Duration JOB_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final String SEGMENT_MINUTES_PROPERTY = "lecturly.audio.segmentMinutes";
+    // Bounds how many segments are uploaded at once; the backend's LECTURLY_JOB_WORKERS
+    // decides how many of their jobs run at the same time
+    private static final String PARALLEL_SEGMENTS_PROPERTY = "lecturly.audio.parallelSegments";
+    // Each segment repeats this much of the previous one, so nothing said across a cut is lost
+    private static final long SEGMENT_OVERLAP_MS = 10_000;
+
+    // Notes jobs being waited for, by notebook id, shared by every window of the app
+    private static final Map<String, NotesJobsWait> NOTES_JOB_WAITS = new HashMap<>();
+    private static final ExecutorService NOTES_JOB_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "notes-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long segmentMillis;
+    private final int parallelSegments;
+    private final int chunkSize;
+
+    /**
+     * Receives upload progress, on the thread that sends the request body
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesSent, long totalBytes);
+    }
+
+    /**
+     * Receives the stage (e.g. "Generating notes") and progress, from 0 to 1, of
+     * running notes jobs, on the thread waiting for them
+     */
+    public interface JobListener {
+        void onJobProgress(String stage, double progress);
+    }
+
+    /**
+     * A wait for one notebook's notes jobs, reported to whichever caller tracked them last
+     */
+    private static final class NotesJobsWait {
+        private final List<String> jobIds;
+        private JobListener listener;
+        private CompletableFuture<String> tracker;
+
+        private NotesJobsWait(List<String> jobIds) {
+            this.jobIds = List.copyOf(jobIds);
+        }
+    }
 
     public AudioProcessingService() {
-        this.httpClient = HttpClient.newHttpClient();
+        this.httpClient = HttpClients.backend();
         this.gson = new Gson();
+        this.segmentMillis = Math.max(0, Long.getLong(SEGMENT_MINUTES_PROPERTY, 15)) * 60_000;
+        this.parallelSegments = Math.max(1, Integer.getInteger(PARALLEL_SEGMENTS_PROPERTY, 3));
+        this.chunkSize = Math.max(1, Math.min(64, Integer.getInteger(CHUNK_MEGABYTES_PROPERTY, DEFAULT_CHUNK_MEGABYTES)))
+                * 1024 * 1024;
     }
 
     /**
@@ -36,42 +120,293 @@ public class AudioProcessingService {
      * @throws Exception if processing fails
      */
     public String generateNotesFromAudio(File audioFile) throws Exception {
+        return generateNotesFromAudio(audioFile, null);
+    }
+
+    /**
+     * Send audio file to FastAPI backend for processing, reporting upload progress.
+     * Long WAV, AIFF and AU recordings are split into segments whose notes the
+     * backend generates as separate jobs, see lecturly.audio.segmentMinutes.
+     * @param audioFile Audio file to process
+     * @param progress Notified as the file is uploaded, or null
+     * @return Generated lecture notes in markdown format
+     * @throws Exception if processing fails
+     */
+    public String generateNotesFromAudio(File audioFile, ProgressListener progress) throws Exception {
+        List<String> jobIds = submitNotesJobs(audioFile, progress);
+        try {
+            return awaitNotesJobs(jobIds, null);
+        } finally {
+            // Collected, or failed, in which case the other segments' jobs are of no use
+            discardNotesJobs(jobIds);
+        }
+    }
+
+    /**
+     * Upload an audio file and start generating its notes as backend jobs, one per
+     * segment of a long recording. The jobs keep running if the app stops, so the
+     * ids can be saved and passed to {@link #awaitNotesJobs} later. If any segment
+     * fails, the jobs already started for the others are cancelled.
+     * @param progress Notified as the file is uploaded, or null
+     * @return ids of the jobs, in the order of their notes
+     */
+    public List<String> submitNotesJobs(File audioFile, ProgressListener progress) throws Exception {
         if (!audioFile.exists()) {
             throw new IllegalArgumentException("Audio file not found: " + audioFile.getAbsolutePath());
         }
 
-        byte[] fileContent = Files.readAllBytes(audioFile.toPath());
-        String boundary = "----FormBoundary" + System.currentTimeMillis();
+        if (segmentMillis > 0 && AudioSegmenter.durationMillis(audioFile.toPath()) > segmentMillis * 3 / 2) {
+            return submitSegmentJobs(audioFile.toPath(), progress);
+        }
+        return List.of(submitJob(audioFile.toPath(), progress));
+    }
 
-        // Build multipart/form-data request
-        byte[] requestBody = buildMultipartFormData(fileContent, audioFile.getName(), boundary);
+    /**
+     * Wait for notes jobs to finish, polling their status, and join their notes in order.
+     * The jobs are kept on the backend until {@link #discardNotesJobs} is called.
+     * @param listener Notified of the jobs' combined stage and progress, or null
+     * @throws IOException if the backend could not be reached; the jobs may still finish
+     * @throws Exception if a job failed or the backend no longer knows it
+     */
+    public String awaitNotesJobs(List<String> jobIds, JobListener listener) throws Exception {
+        try {
+            while (true) {
+                int done = 0;
+                double progress = 0;
+                String stage = null;
+                for (String jobId : jobIds) {
+                    JsonObject status = getJson("/jobs/" + jobId);
+                    switch (status.get("state").getAsString()) {
+                        case "done" -> done++;
+                        case "failed" -> throw new Exception("Note generation failed: "
+                                + status.get("error").getAsString());
+                        default -> {
+                            if (stage == null) {
+                                stage = status.get("stage").getAsString();
+                            }
+                        }
+                    }
+                    progress += status.get("progress").getAsDouble() / jobIds.size();
+                }
+                if (done == jobIds.size()) {
+                    break;
+                }
+                if (listener != null) {
+                    if (jobIds.size() > 1) {
+                        stage += " (" + done + " of " + jobIds.size() + " segments done)";
+                    }
+                    listener.onJobProgress(stage, progress);
+                }
+                Thread.sleep(JOB_POLL_INTERVAL.toMillis());
+            }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(FASTAPI_BACKEND + "/audio-to-notes"))
-                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody))
-                .timeout(java.time.Duration.ofMinutes(5))
-                .build();
+            List<String> notes = new ArrayList<>();
+            for (String jobId : jobIds) {
+                JsonObject result = getJson("/jobs/" + jobId + "/result");
+                if (!result.has("notes")) {
+                    throw new Exception("No notes in response");
+                }
+                notes.add(result.get("notes").getAsString());
+            }
+            System.out.println("Successfully generated notes from audio");
+            return NotesStitcher.stitch(notes);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Exception("Request interrupted: " + e.getMessage());
+        }
+    }
 
-        System.out.println("Sending audio file to FastAPI backend: " + audioFile.getName());
+    /**
+     * Let the backend forget finished jobs once their notes are saved, or cancel
+     * jobs whose notes are no longer wanted
+     */
+    public void discardNotesJobs(List<String> jobIds) {
+        for (String jobId : jobIds) {
+            try {
+                send(HttpRequest.newBuilder()
+                        .uri(new URI(FASTAPI_BACKEND + "/jobs/" + jobId))
+                        .DELETE()
+                        .timeout(REQUEST_TIMEOUT)
+                        .build(), null, 0);
+            } catch (Exception e) {
+                System.err.println("Failed to delete job " + jobId + ": " + e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * Wait in the background for a notebook's notes jobs, as {@link #awaitNotesJobs} does.
+     * Only one wait runs per notebook in the whole app: tracking the same jobs again,
+     * e.g. from a reopened notebook window, takes the running wait over, and the future
+     * given to the previous caller is cancelled. Jobs that failed are discarded, along
+     * with their siblings; jobs that finished are left for the caller to discard.
+     * @param listener Notified of the jobs' stage and progress while this caller tracks them
+     * @return the joined notes; fails with an IOException if the backend could not be reached
+     */
+    public CompletableFuture<String> trackNotesJobs(String notebookId, List<String> jobIds, JobListener listener) {
+        CompletableFuture<String> tracker = new CompletableFuture<>();
+        CompletableFuture<String> previous = null;
+        NotesJobsWait wait;
+        boolean start = false;
+        synchronized (NOTES_JOB_WAITS) {
+            wait = NOTES_JOB_WAITS.get(notebookId);
+            if (wait == null || !wait.jobIds.equals(jobIds)) {
+                if (wait != null) {
+                    previous = wait.tracker;
+                }
+                wait = new NotesJobsWait(jobIds);
+                NOTES_JOB_WAITS.put(notebookId, wait);
+                start = true;
+            } else {
+                previous = wait.tracker;
+            }
+            wait.listener = listener;
+            wait.tracker = tracker;
+        }
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        if (start) {
+            NotesJobsWait started = wait;
+            NOTES_JOB_EXECUTOR.execute(() -> runNotesJobsWait(notebookId, started));
+        }
+        return tracker;
+    }
+
+    private void runNotesJobsWait(String notebookId, NotesJobsWait wait) {
+        String notes = null;
+        Exception failure = null;
         try {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            notes = awaitNotesJobs(wait.jobIds, (stage, progress) -> {
+                JobListener listener;
+                synchronized (NOTES_JOB_WAITS) {
+                    listener = wait.listener;
+                }
+                if (listener != null) {
+                    listener.onJobProgress(stage, progress);
+                }
+            });
+        } catch (IOException e) {
+            // The jobs may well finish without us, so they are kept for the next attempt
+            failure = e;
+        } catch (Exception e) {
+            discardNotesJobs(wait.jobIds);
+            failure = e;
+        }
+
+        CompletableFuture<String> tracker;
+        synchronized (NOTES_JOB_WAITS) {
+            NOTES_JOB_WAITS.remove(notebookId, wait);
+            tracker = wait.tracker;
+        }
+        if (failure != null) {
+            tracker.completeExceptionally(failure);
+        } else {
+            tracker.complete(notes);
+        }
+    }
+
+    /**
+     * Split a recording at pauses and upload the segments concurrently, starting a job for each
+     */
+    private List<String> submitSegmentJobs(Path file, ProgressListener progress) throws Exception {
+        Path directory = Files.createTempDirectory("lecturly-segments");
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelSegments, r -> {
+            Thread thread = new Thread(r, "audio-segment-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<AudioSegmenter.Segment> segments = AudioSegmenter.split(file, segmentMillis, SEGMENT_OVERLAP_MS, directory);
+            System.out.println("Split " + file.getFileName() + " into " + segments.size() + " segments");
+
+            long totalBytes = 0;
+            for (AudioSegmenter.Segment segment : segments) {
+                totalBytes += Files.size(segment.file());
+            }
+            long total = totalBytes;
+            AtomicLong sent = new AtomicLong();
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Future<String>> jobs = new ArrayList<>();
+            for (AudioSegmenter.Segment segment : segments) {
+                // Adds this segment's progress to the total for the whole recording
+                ProgressListener segmentProgress = progress == null ? null : new ProgressListener() {
+                    private long reported;
+
+                    @Override
+                    public void onProgress(long bytesSent, long totalBytes) {
+                        progress.onProgress(sent.addAndGet(bytesSent - reported), total);
+                        reported = bytesSent;
+                    }
+                };
+                jobs.add(executor.submit(() -> {
+                    // Segments not started yet are skipped once another one failed
+                    if (failed.get()) {
+                        return null;
+                    }
+                    try {
+                        return submitJob(segment.file(), segmentProgress);
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                }));
+            }
+
+            // Every upload is waited for, so no job it started goes untracked
+            List<String> jobIds = new ArrayList<>();
+            Exception failure = null;
+            for (Future<String> job : jobs) {
+                try {
+                    String jobId = job.get();
+                    if (jobId != null) {
+                        jobIds.add(jobId);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                discardNotesJobs(jobIds);
+                throw failure;
+            }
+            return jobIds;
+        } finally {
+            executor.shutdownNow();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path segmentFile : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(segmentFile);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Upload one file and start a job generating its notes
+     * @return the job's id
+     */
+    private String submitJob(Path file, ProgressListener progress) throws Exception {
+        long fileSize = Files.size(file);
+        System.out.println("Sending audio file to FastAPI backend: " + file.getFileName());
+
+        // A retried request whose first attempt reached the backend gets the same job back
+        String idempotencyKey = UUID.randomUUID().toString();
+        try {
+            HttpResponse<String> response = fileSize > chunkSize
+                    ? uploadInChunks(file, fileSize, idempotencyKey, progress)
+                    : uploadInOneRequest(file, fileSize, idempotencyKey, progress);
 
             if (response.statusCode() < 200 || response.statusCode() >= 300) {
                 System.err.println("FastAPI Error (" + response.statusCode() + "): " + response.body());
                 throw new Exception("FastAPI backend error: " + response.body());
             }
 
-            JsonObject result = gson.fromJson(response.body(), JsonObject.class);
-            
-            if (!result.has("notes")) {
-                throw new Exception("No notes in response");
-            }
-
-            String notes = result.get("notes").getAsString();
-            System.out.println("Successfully generated notes from audio");
-            return notes;
+            return gson.fromJson(response.body(), JsonObject.class).get("job_id").getAsString();
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -80,9 +415,173 @@ public class AudioProcessingService {
     }
 
     /**
-     * Build multipart/form-data request body
+     * GET a backend resource that does not involve Gemini
      */
-    private byte[] buildMultipartFormData(byte[] fileContent, String filename, String boundary) throws Exception {
+    private JsonObject getJson(String path) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(new URI(FASTAPI_BACKEND + path))
+                .GET()
+                .timeout(REQUEST_TIMEOUT)
+                .build(), null, 0);
+        if (response.statusCode() == 404) {
+            throw new Exception("The backend no longer knows this job; generate the notes again");
+        }
+        if (response.statusCode() != 200) {
+            System.err.println("FastAPI Error (" + response.statusCode() + "): " + response.body());
+            throw new Exception("FastAPI backend error: " + response.body());
+        }
+        return gson.fromJson(response.body(), JsonObject.class);
+    }
+
+    /**
+     * Post the whole file as multipart/form-data to /jobs
+     */
+    private HttpResponse<String> uploadInOneRequest(Path file, long fileSize, String idempotencyKey,
+                                                    ProgressListener progress) throws Exception {
+        String boundary = "----FormBoundary" + System.currentTimeMillis();
+
+        // Build multipart/form-data request, streamed from the file
+        HttpRequest.BodyPublisher requestBody = buildMultipartFormData(file, file.getFileName().toString(), boundary);
+        if (progress != null) {
+            requestBody = new ProgressBodyPublisher(requestBody, requestBody.contentLength(), progress);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(new URI(FASTAPI_BACKEND + "/jobs"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("Idempotency-Key", idempotencyKey)
+                .POST(requestBody)
+                .timeout(transferTimeout(requestBody.contentLength()))
+                .build();
+        return send(request, RequestScheduler.Priority.BACKGROUND, estimateAudioTokens(fileSize));
+    }
+
+    /**
+     * Upload the file through /uploads in checksummed chunks, then start a job turning
+     * it into notes. The backend keeps what it received under an id derived from the file's
+     * checksum, so uploading the same file again, even after a restart, continues
+     * where the last attempt stopped.
+     */
+    private HttpResponse<String> uploadInChunks(Path file, long fileSize, String idempotencyKey,
+                                                ProgressListener progress) throws Exception {
+        JsonObject start = new JsonObject();
+        start.addProperty("filename", file.getFileName().toString());
+        start.addProperty("size", fileSize);
+        start.addProperty("sha256", sha256(file));
+        HttpResponse<String> started = send(HttpRequest.newBuilder()
+                .uri(new URI(FASTAPI_BACKEND + "/uploads"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(start.toString()))
+                .timeout(REQUEST_TIMEOUT)
+                .build(), null, 0);
+        if (started.statusCode() != 200) {
+            throw new Exception("FastAPI backend error: " + started.body());
+        }
+        JsonObject upload = gson.fromJson(started.body(), JsonObject.class);
+        String uploadId = upload.get("upload_id").getAsString();
+        long offset = upload.get("offset").getAsLong();
+        if (offset > 0) {
+            System.out.println("Resuming upload of " + file.getFileName() + " at byte " + offset);
+        }
+
+        byte[] buffer = new byte[chunkSize];
+        // Counted per chunk, so isolated corruptions across a long upload do not add up
+        int mismatches = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (offset < fileSize) {
+                int length = readChunk(channel, offset, buffer);
+                HttpRequest.BodyPublisher chunk = HttpRequest.BodyPublishers.ofByteArray(buffer, 0, length);
+                if (progress != null) {
+                    progress.onProgress(offset, fileSize);
+                    chunk = new ProgressBodyPublisher(chunk, offset, fileSize, progress);
+                }
+                HttpResponse<String> response = send(HttpRequest.newBuilder()
+                        .uri(new URI(FASTAPI_BACKEND + "/uploads/" + uploadId + "?offset=" + offset))
+                        .header("Content-Type", "application/octet-stream")
+                        .header("X-Chunk-SHA256", sha256(buffer, length))
+                        .PUT(chunk)
+                        .timeout(transferTimeout(length))
+                        .build(), null, 0);
+                if (response.statusCode() == 422 && ++mismatches < MAX_CHUNK_MISMATCHES) {
+                    System.err.println("Chunk at byte " + offset + " arrived corrupted, sending it again");
+                    continue;
+                }
+                // 409 means the backend expected another offset, which it tells us
+                if (response.statusCode() != 200 && response.statusCode() != 409) {
+                    throw new Exception("FastAPI backend error: " + response.body());
+                }
+                long next = gson.fromJson(response.body(), JsonObject.class).get("offset").getAsLong();
+                if (next > offset) {
+                    mismatches = 0;
+                }
+                offset = next;
+            }
+        }
+        if (progress != null) {
+            progress.onProgress(fileSize, fileSize);
+        }
+
+        return send(HttpRequest.newBuilder()
+                .uri(new URI(FASTAPI_BACKEND + "/uploads/" + uploadId + "/jobs"))
+                .header("Idempotency-Key", idempotencyKey)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(REQUEST_TIMEOUT)
+                .build(), RequestScheduler.Priority.BACKGROUND, estimateAudioTokens(fileSize));
+    }
+
+    /**
+     * Send a request to the backend, retried on connection errors and 5xx and failed
+     * fast while the backend is down
+     * @param priority lane to wait in if the request makes the backend call Gemini, otherwise null
+     */
+    private HttpResponse<String> send(HttpRequest request, RequestScheduler.Priority priority, int tokens) throws Exception {
+        try {
+            return ResilientClient.backend().sendAsync(request, HttpResponse.BodyHandlers.ofString(), false,
+                    priority, tokens).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Read up to a buffer's worth of the file from a position
+     * @return number of bytes read
+     */
+    private static int readChunk(FileChannel channel, long position, byte[] buffer) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer);
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return target.position();
+    }
+
+    private static String sha256(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sha256(byte[] data, int length) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(data, 0, length);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Build multipart/form-data request body. The file is read in small buffers as
+     * the request is sent, so memory use does not grow with the recording's length.
+     */
+    private HttpRequest.BodyPublisher buildMultipartFormData(Path file, String filename, String boundary) throws Exception {
         StringBuilder sb = new StringBuilder();
 
         // Add file part
@@ -91,15 +590,27 @@ public class AudioProcessingService {
         sb.append("Content-Type: ").append(getMimeType(filename)).append("\r\n");
         sb.append("\r\n");
 
-        byte[] header = sb.toString().getBytes();
-        byte[] footer = ("\r\n--" + boundary + "--\r\n").getBytes();
+        byte[] header = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] footer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        return HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofByteArray(header),
+                HttpRequest.BodyPublishers.ofFile(file),
+                HttpRequest.BodyPublishers.ofByteArray(footer));
+    }
 
-        byte[] result = new byte[header.length + fileContent.length + footer.length];
-        System.arraycopy(header, 0, result, 0, header.length);
-        System.arraycopy(fileContent, 0, result, header.length, fileContent.length);
-        System.arraycopy(footer, 0, result, header.length + fileContent.length, footer.length);
+    /**
+     * Timeout for a request sending this many bytes of audio
+     */
+    private static Duration transferTimeout(long bytes) {
+        return Duration.ofMillis(Math.max(REQUEST_TIMEOUT.toMillis(), bytes * 1000 / MIN_UPLOAD_BYTES_PER_SECOND));
+    }
 
-        return result;
+    /**
+     * Rough Gemini token cost of an audio upload, for pacing it against the chat
+     */
+    private static int estimateAudioTokens(long fileSize) {
+        return (int) Math.min(Integer.MAX_VALUE, fileSize / AUDIO_BYTES_PER_TOKEN);
     }
 
     private String getMimeType(String filename) {
@@ -125,7 +636,7 @@ public class AudioProcessingService {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(new URI(FASTAPI_BACKEND + "/health"))
                     .POST(HttpRequest.BodyPublishers.noBody())
-                    .timeout(java.time.Duration.ofSeconds(5))
+                    .timeout(Duration.ofSeconds(5))
                     .build();
 
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
@@ -0,0 +1,174 @@
+package org.example.lecturly;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a long PCM recording (WAV, AIFF or AU) into overlapping segments of about
+ * a target length. Each cut is made at the quietest moment near the target, so it
+ * rarely falls in the middle of a sentence. Segments are written as WAV files,
+ * streaming from the source, so memory use does not depend on the recording's length.
+ */
+final class AudioSegmenter {
+    // Loudness is measured over windows of this length
+    private static final int WINDOW_MS = 100;
+    // How far a cut may move from the target length to find a pause
+    private static final long SEARCH_MS = 60_000;
+
+    /**
+     * One piece of the recording; startMillis includes the overlap with the previous piece
+     */
+    record Segment(int index, Path file, long startMillis, long endMillis) {
+    }
+
+    private AudioSegmenter() {
+    }
+
+    /**
+     * Length of a recording in milliseconds, or -1 if it is not in a format that can be split
+     */
+    static long durationMillis(Path file) {
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file.toFile());
+            AudioFormat format = fileFormat.getFormat();
+            if (!isSupported(format) || fileFormat.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+                return -1;
+            }
+            return (long) (fileFormat.getFrameLength() * 1000L / format.getFrameRate());
+        } catch (UnsupportedAudioFileException | IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Split a recording into segments of about segmentMillis, each starting overlapMillis
+     * before the previous one ends. A recording shorter than one and a half segments
+     * comes back as a single segment.
+     * @param directory where the segment files are written
+     */
+    static List<Segment> split(Path file, long segmentMillis, long overlapMillis, Path directory)
+            throws IOException, UnsupportedAudioFileException {
+        AudioFormat format;
+        long totalFrames;
+        float[] levels;
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file.toFile())) {
+            format = in.getFormat();
+            totalFrames = in.getFrameLength();
+            if (!isSupported(format) || totalFrames == AudioSystem.NOT_SPECIFIED) {
+                throw new UnsupportedAudioFileException("Only PCM recordings of known length can be split");
+            }
+            levels = measureLevels(in, format);
+        }
+
+        long framesPerWindow = framesPerWindow(format);
+        long overlapFrames = (long) (format.getFrameRate() * overlapMillis / 1000);
+        List<Integer> cuts = findCuts(levels, (int) (segmentMillis / WINDOW_MS));
+        String baseName = file.getFileName().toString().replaceFirst("\\.[^.]+$", "");
+
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i <= cuts.size(); i++) {
+            long startFrame = i == 0 ? 0 : Math.max(0, cuts.get(i - 1) * framesPerWindow - overlapFrames);
+            long endFrame = i == cuts.size() ? totalFrames : Math.min(totalFrames, cuts.get(i) * framesPerWindow);
+            Path segmentFile = directory.resolve(String.format("%s-part%02d.wav", baseName, i + 1));
+            writeFrames(file, format, startFrame, endFrame, segmentFile);
+            segments.add(new Segment(i, segmentFile, millis(startFrame, format), millis(endFrame, format)));
+        }
+        return segments;
+    }
+
+    /**
+     * Window indices to cut at: for each segment, the quietest window within the
+     * search distance of the target length, keeping every segment at least half the target
+     */
+    private static List<Integer> findCuts(float[] levels, int targetWindows) {
+        List<Integer> cuts = new ArrayList<>();
+        int searchWindows = (int) (SEARCH_MS / WINDOW_MS);
+        int start = 0;
+        while (targetWindows > 0 && levels.length - start > targetWindows * 3 / 2) {
+            int from = Math.max(start + targetWindows / 2, start + targetWindows - searchWindows);
+            int to = Math.min(levels.length - targetWindows / 2, start + targetWindows + searchWindows);
+            int quietest = from;
+            for (int i = from; i < to; i++) {
+                if (levels[i] < levels[quietest]) {
+                    quietest = i;
+                }
+            }
+            cuts.add(quietest);
+            start = quietest;
+        }
+        return cuts;
+    }
+
+    /**
+     * Mean absolute amplitude of each window, read in one pass over the stream
+     */
+    private static float[] measureLevels(AudioInputStream in, AudioFormat format) throws IOException {
+        int frameSize = format.getFrameSize();
+        int sampleBytes = format.getSampleSizeInBits() / 8;
+        boolean unsigned = format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        int windowFrames = (int) framesPerWindow(format);
+        int windows = (int) ((in.getFrameLength() + windowFrames - 1) / windowFrames);
+        float[] levels = new float[windows];
+        byte[] buffer = new byte[windowFrames * frameSize];
+
+        for (int window = 0; window < windows; window++) {
+            int read = in.readNBytes(buffer, 0, buffer.length);
+            int samples = read / sampleBytes;
+            if (samples == 0) {
+                break;
+            }
+            long sum = 0;
+            for (int i = 0; i + sampleBytes <= read; i += sampleBytes) {
+                sum += amplitude(buffer, i, sampleBytes, format.isBigEndian(), unsigned);
+            }
+            levels[window] = (float) sum / samples;
+        }
+        return levels;
+    }
+
+    /**
+     * Absolute value of one sample, scaled to 16 bits from its most significant bytes
+     */
+    private static int amplitude(byte[] buffer, int offset, int sampleBytes, boolean bigEndian, boolean unsigned) {
+        int high = bigEndian ? buffer[offset] : buffer[offset + sampleBytes - 1];
+        if (unsigned) {
+            high = (high & 0xff) - 128;
+        }
+        if (sampleBytes == 1) {
+            return Math.abs(high << 8);
+        }
+        int low = (bigEndian ? buffer[offset + 1] : buffer[offset + sampleBytes - 2]) & 0xff;
+        return Math.abs(high << 8 | low);
+    }
+
+    private static void writeFrames(Path source, AudioFormat format, long startFrame, long endFrame, Path target)
+            throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(source.toFile())) {
+            in.skipNBytes(startFrame * format.getFrameSize());
+            AudioInputStream segment = new AudioInputStream(in, format, endFrame - startFrame);
+            AudioSystem.write(segment, AudioFileFormat.Type.WAVE, target.toFile());
+        }
+    }
+
+    private static boolean isSupported(AudioFormat format) {
+        boolean pcm = format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                || format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        int bits = format.getSampleSizeInBits();
+        return pcm && bits % 8 == 0 && bits >= 8 && bits <= 32 && format.getFrameRate() > 0;
+    }
+
+    private static long framesPerWindow(AudioFormat format) {
+        return Math.max(1, Math.round(format.getFrameRate() * WINDOW_MS / 1000));
+    }
+
+    private static long millis(long frames, AudioFormat format) {
+        return (long) (frames * 1000 / format.getFrameRate());
+    }
+}
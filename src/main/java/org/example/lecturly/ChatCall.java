@@ -0,0 +1,65 @@
+package org.example.lecturly;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The future of one chat request. Exactly one outcome wins: success (which
+ * records the turn in the history), failure, timeout or cancel. Cancelling or
+ * failing also aborts the HTTP exchange, so a stopped reply stops downloading.
+ */
+class ChatCall extends CompletableFuture<String> {
+    private final AtomicBoolean settled = new AtomicBoolean();
+    private Runnable abort;
+
+    /**
+     * Record the reply and complete, unless the call was already cancelled or failed
+     */
+    void succeed(String text, Runnable commit) {
+        if (settled.compareAndSet(false, true)) {
+            commit.run();
+            complete(text);
+        }
+    }
+
+    void fail(Throwable error) {
+        if (settled.compareAndSet(false, true)) {
+            completeExceptionally(error);
+            runAbort();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!settled.compareAndSet(false, true)) {
+            return isCancelled();
+        }
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        runAbort();
+        return cancelled;
+    }
+
+    /**
+     * How to abort the exchange; runs at once if the call has already been stopped
+     */
+    void onAbort(Runnable action) {
+        boolean stopped;
+        synchronized (this) {
+            abort = action;
+            stopped = isCompletedExceptionally();
+        }
+        if (stopped) {
+            action.run();
+        }
+    }
+
+    private void runAbort() {
+        Runnable action;
+        synchronized (this) {
+            action = abort;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+}
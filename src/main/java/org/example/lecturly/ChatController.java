@@ -9,8 +9,8 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.TextAlignment;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatController {
     private TextField apiKeyField;
@@ -23,7 +23,7 @@ public class ChatController {
     private ScrollPane messagesScrollPane;
 
     private GeminiChatService chatService;
-    private ScheduledExecutorService executorService;
+    private CompletableFuture<String> pendingReply;
     private boolean isConnected = false;
 
     public ChatController(TextField apiKeyField, Button connectButton, Label statusLabel,
@@ -37,7 +37,6 @@ public class ChatController {
         this.clearButton = clearButton;
         this.messagesContainer = messagesContainer;
         this.messagesScrollPane = messagesScrollPane;
-        executorService = Executors.newScheduledThreadPool(1);
         inputArea.setWrapText(true);
 
         // Auto-scroll to bottom
@@ -59,6 +58,7 @@ public class ChatController {
 
         try {
             chatService = new GeminiChatService(apiKey);
+            GeminiChatService.warmUp();
             isConnected = true;
             sendButton.setDisable(false);
             clearButton.setDisable(false);
@@ -73,6 +73,12 @@ public class ChatController {
     }
 
     protected void onSendClick() {
+        // While a reply is coming in, the Send button stops it
+        if (pendingReply != null) {
+            pendingReply.cancel(true);
+            return;
+        }
+
         if (!isConnected) {
             showError("Not connected. Please connect first.");
             return;
@@ -84,32 +90,41 @@ public class ChatController {
         }
 
         inputArea.clear();
-        sendButton.setDisable(true);
         addUserMessage(message);
         statusLabel.setText("Waiting for response...");
         statusLabel.setStyle("-fx-text-fill: #d29922;");
 
-        // Send message in background thread
-        executorService.execute(() -> {
-            try {
-                String response = chatService.chat(message);
-                Platform.runLater(() -> {
-                    addAssistantMessage(response);
-                    statusLabel.setText("✓ Connected to Gemini 2.5 Flash");
-                    statusLabel.setStyle("-fx-text-fill: #3fb950;");
-                    sendButton.setDisable(false);
-                    inputArea.requestFocus();
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    showError("Error: " + e.getMessage());
-                    statusLabel.setText("✗ Error occurred");
-                    statusLabel.setStyle("-fx-text-fill: #f85149;");
-                    sendButton.setDisable(false);
-                    inputArea.requestFocus();
-                });
+        // Show the reply as it streams in
+        HBox responseBox = createMessageBubble("…", false);
+        messagesContainer.getChildren().add(responseBox);
+        StreamingLabel streamingLabel = new StreamingLabel(messageLabelOf(responseBox));
+        streamingLabel.start();
+
+        CompletableFuture<String> reply = chatService.chatAsync(message, streamingLabel);
+        pendingReply = reply;
+        sendButton.setText("Stop");
+        reply.whenComplete((response, error) -> Platform.runLater(() -> {
+            pendingReply = null;
+            sendButton.setText("Send");
+            inputArea.requestFocus();
+            if (error == null) {
+                streamingLabel.finish(response);
+                statusLabel.setText("✓ Connected to Gemini 2.5 Flash");
+                statusLabel.setStyle("-fx-text-fill: #3fb950;");
+                return;
             }
-        });
+            streamingLabel.stop();
+            messagesContainer.getChildren().remove(responseBox);
+            if (error instanceof CancellationException) {
+                addSystemMessage("Response stopped.");
+                statusLabel.setText("✓ Connected to Gemini 2.5 Flash");
+                statusLabel.setStyle("-fx-text-fill: #3fb950;");
+            } else {
+                showError("Error: " + error.getMessage());
+                statusLabel.setText("✗ Error occurred");
+                statusLabel.setStyle("-fx-text-fill: #f85149;");
+            }
+        }));
     }
 
     protected void onClearClick() {
@@ -125,11 +140,6 @@ public class ChatController {
         messagesContainer.getChildren().add(messageBox);
     }
 
-    private void addAssistantMessage(String text) {
-        HBox messageBox = createMessageBubble(text, false);
-        messagesContainer.getChildren().add(messageBox);
-    }
-
     private void addSystemMessage(String text) {
         HBox messageBox = createMessageBubble(text, null);
         messagesContainer.getChildren().add(messageBox);
@@ -177,6 +187,10 @@ public class ChatController {
         return hbox;
     }
 
+    private static Label messageLabelOf(HBox messageBox) {
+        return (Label) ((VBox) messageBox.getChildren().get(0)).getChildren().get(0);
+    }
+
     private void showError(String message) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Error");
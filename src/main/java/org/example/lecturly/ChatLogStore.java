@@ -0,0 +1,215 @@
+package org.example.lecturly;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only chat history, stored as one JSON-lines file per notebook.
+ *
+ * Adding a message appends a single line instead of rewriting the notebook.
+ * Appends are fsynced in batches on the storage I/O thread, so a burst of
+ * messages costs one sync.
+ */
+public class ChatLogStore {
+    private static final String LOG_EXTENSION = ".chat.jsonl";
+    private static final long SYNC_DELAY_MS = 200;
+    private static final int MAX_OPEN_LOGS = 8;
+
+    private final Path directory;
+    private final Gson gson;
+    private final ScheduledExecutorService ioExecutor;
+    private final Map<String, FileChannel> openLogs = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> unsynced = new HashSet<>();
+    private final Map<String, Long> knownSizes = new HashMap<>();
+    private boolean syncScheduled;
+
+    /**
+     * @param gson must not pretty print, each message has to stay on one line
+     */
+    public ChatLogStore(Path directory, Gson gson, ScheduledExecutorService ioExecutor) {
+        this.directory = directory;
+        this.gson = gson;
+        this.ioExecutor = ioExecutor;
+    }
+
+    public boolean exists(String notebookId) {
+        return Files.exists(logFile(notebookId));
+    }
+
+    /**
+     * Append messages to the notebook's log
+     */
+    public synchronized void append(String notebookId, List<Notebook.ChatMessage> messages) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Notebook.ChatMessage message : messages) {
+            lines.append(gson.toJson(message)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        FileChannel channel = channel(notebookId);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        knownSizes.put(notebookId, channel.size());
+        unsynced.add(notebookId);
+        if (!syncScheduled) {
+            syncScheduled = true;
+            ioExecutor.schedule(this::sync, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Read the full history; a torn last line left by a crash is skipped
+     */
+    public List<Notebook.ChatMessage> read(String notebookId) throws IOException {
+        List<Notebook.ChatMessage> messages = new ArrayList<>();
+        Path file = logFile(notebookId);
+        if (!Files.exists(file)) {
+            return messages;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    messages.add(gson.fromJson(line, Notebook.ChatMessage.class));
+                } catch (Exception e) {
+                    System.err.println("Skipping corrupt chat log line for notebook " + notebookId);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Replace the log with the given messages, used to migrate history embedded in old notebook files
+     */
+    public synchronized void rewrite(String notebookId, List<Notebook.ChatMessage> messages) throws IOException {
+        closeLog(notebookId);
+        Path file = logFile(notebookId);
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder lines = new StringBuilder();
+        for (Notebook.ChatMessage message : messages) {
+            lines.append(gson.toJson(message)).append('\n');
+        }
+        Files.writeString(tempFile, lines);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        knownSizes.put(notebookId, Files.size(file));
+    }
+
+    /**
+     * Compact the log of a cleared conversation down to nothing
+     */
+    public synchronized void clear(String notebookId) throws IOException {
+        closeLog(notebookId);
+        if (Files.exists(logFile(notebookId))) {
+            try (FileChannel channel = FileChannel.open(logFile(notebookId), StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+                channel.force(true);
+            }
+        }
+        knownSizes.put(notebookId, 0L);
+    }
+
+    /**
+     * Remove the log of a deleted notebook
+     */
+    public synchronized void delete(String notebookId) throws IOException {
+        closeLog(notebookId);
+        Files.deleteIfExists(logFile(notebookId));
+        knownSizes.remove(notebookId);
+    }
+
+    /**
+     * Whether the log differs from what this process last wrote, meaning another process changed it
+     */
+    public synchronized boolean isExternallyModified(String notebookId) {
+        long size;
+        try {
+            size = Files.exists(logFile(notebookId)) ? Files.size(logFile(notebookId)) : -1;
+        } catch (IOException e) {
+            return true;
+        }
+        Long known = knownSizes.get(notebookId);
+        return known == null ? size >= 0 : known != size;
+    }
+
+    /**
+     * Fsync every log with appends since the last sync
+     */
+    public synchronized void sync() {
+        syncScheduled = false;
+        for (String notebookId : unsynced) {
+            FileChannel channel = openLogs.get(notebookId);
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                System.err.println("Failed to sync chat log for notebook " + notebookId + ": " + e.getMessage());
+            }
+        }
+        unsynced.clear();
+    }
+
+    private FileChannel channel(String notebookId) throws IOException {
+        FileChannel channel = openLogs.get(notebookId);
+        if (channel != null) {
+            return channel;
+        }
+        // Keep only a few logs open; older ones are synced and closed
+        Iterator<Map.Entry<String, FileChannel>> eldest = openLogs.entrySet().iterator();
+        while (openLogs.size() >= MAX_OPEN_LOGS && eldest.hasNext()) {
+            Map.Entry<String, FileChannel> entry = eldest.next();
+            closeQuietly(entry.getKey(), entry.getValue());
+            eldest.remove();
+        }
+        channel = FileChannel.open(logFile(notebookId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        openLogs.put(notebookId, channel);
+        return channel;
+    }
+
+    private void closeLog(String notebookId) {
+        FileChannel channel = openLogs.remove(notebookId);
+        if (channel != null) {
+            closeQuietly(notebookId, channel);
+        }
+    }
+
+    private void closeQuietly(String notebookId, FileChannel channel) {
+        try {
+            if (unsynced.remove(notebookId)) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close chat log for notebook " + notebookId + ": " + e.getMessage());
+        }
+    }
+
+    private Path logFile(String notebookId) {
+        return directory.resolve(notebookId + LOG_EXTENSION);
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.lecturly;
+
+import java.io.IOException;
+
+/**
+ * Thrown without contacting a service whose recent requests kept failing
+ */
+public class CircuitOpenException extends IOException {
+    private final long retryInMillis;
+
+    public CircuitOpenException(String service, long retryInMillis) {
+        super(service + " is unavailable; trying again in " + Math.max(1, (retryInMillis + 999) / 1000) + " s");
+        this.retryInMillis = retryInMillis;
+    }
+
+    public long getRetryInMillis() {
+        return retryInMillis;
+    }
+}
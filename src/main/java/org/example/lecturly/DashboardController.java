@@ -4,6 +4,7 @@ import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Insets;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -13,7 +14,11 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Controller for the dashboard view showing all notebooks
@@ -25,15 +30,150 @@ public class DashboardController {
     private VBox notebooksContainer;
     @FXML
     private ScrollPane notebooksScrollPane;
+    @FXML
+    private TextField searchField;
+
+    private static final int MAX_SEARCH_RESULTS = 200;
 
     private NotebookStorageService storageService;
+    private final Map<String, HBox> cardsById = new HashMap<>();
+    private String fullTextQuery;
+    private final NotebookStorageService.NotebookChangeListener changeListener =
+            (id, kind) -> Platform.runLater(() -> onNotebookChanged(id));
 
     @FXML
     public void initialize() {
-        storageService = new NotebookStorageService();
+        storageService = NotebookStorageService.getInstance();
         // Initialize dummy notebooks if none exist
         storageService.initializeDummyNotebooks();
         loadNotebooks();
+        storageService.addChangeListener(changeListener);
+        // Typing filters cards by name; Enter searches notes and chats
+        searchField.textProperty().addListener((obs, oldVal, newVal) -> onFilterChanged());
+        searchField.setOnAction(e -> {
+            fullTextQuery = searchField.getText().isBlank() ? null : searchField.getText();
+            showSearchResults();
+        });
+    }
+
+    private boolean isSearching() {
+        return fullTextQuery != null;
+    }
+
+    private void onFilterChanged() {
+        if (isSearching()) {
+            fullTextQuery = null;
+            showAllCards();
+        }
+        applyNameFilter();
+    }
+
+    /**
+     * Hide the built cards whose name does not match the search box.
+     * Only cards whose state changes are touched.
+     */
+    private void applyNameFilter() {
+        Set<String> matches = storageService.filterNotebookNames(searchField.getText());
+        for (Map.Entry<String, HBox> entry : cardsById.entrySet()) {
+            boolean show = matches == null || matches.contains(entry.getKey());
+            HBox card = entry.getValue();
+            if (card.isVisible() != show) {
+                card.setVisible(show);
+                card.setManaged(show);
+            }
+        }
+    }
+
+    private void showAllCards() {
+        List<Node> cards = new ArrayList<>();
+        for (NotebookSummary summary : storageService.listNotebookSummaries()) {
+            cards.add(cardFor(summary));
+        }
+        if (cards.isEmpty()) {
+            loadNotebooks();
+        } else {
+            notebooksContainer.getChildren().setAll(cards);
+        }
+    }
+
+    /**
+     * Show the cards matching the full-text query, best matches first
+     */
+    private void showSearchResults() {
+        if (!isSearching()) {
+            showAllCards();
+            applyNameFilter();
+            return;
+        }
+        try {
+            List<Node> cards = new ArrayList<>();
+            for (NotebookSummary summary : storageService.searchNotebooks(fullTextQuery, MAX_SEARCH_RESULTS)) {
+                HBox card = cardFor(summary);
+                card.setVisible(true);
+                card.setManaged(true);
+                cards.add(card);
+            }
+            if (cards.isEmpty()) {
+                Label emptyLabel = new Label("No notebooks match your search.");
+                emptyLabel.setStyle("-fx-font-size: 16; -fx-text-fill: #808080; -fx-font-family: 'Barlow Condensed';");
+                emptyLabel.setPadding(new Insets(40));
+                cards.add(emptyLabel);
+            }
+            notebooksContainer.getChildren().setAll(cards);
+        } catch (IOException e) {
+            showError("Search failed: " + e.getMessage());
+        }
+    }
+
+    private HBox cardFor(NotebookSummary summary) {
+        HBox card = cardsById.get(summary.getId());
+        if (card == null || card.getUserData() != summary) {
+            card = createNotebookCard(summary);
+            cardsById.put(summary.getId(), card);
+        }
+        return card;
+    }
+
+    /**
+     * Update only the card of a notebook changed in another window
+     */
+    private void onNotebookChanged(String id) {
+        if (isSearching()) {
+            // The change may move the notebook in or out of the results
+            showSearchResults();
+            return;
+        }
+        NotebookSummary summary = storageService.getNotebookSummary(id);
+        HBox card = cardsById.get(id);
+        if (summary == null) {
+            if (card != null) {
+                cardsById.remove(id);
+                notebooksContainer.getChildren().remove(card);
+                if (cardsById.isEmpty()) {
+                    loadNotebooks();
+                }
+            }
+            return;
+        }
+        if (cardsById.isEmpty()) {
+            loadNotebooks();
+            return;
+        }
+        if (card != null) {
+            notebooksContainer.getChildren().remove(card);
+        }
+        HBox updated = createNotebookCard(summary);
+        cardsById.put(id, updated);
+        // Cards are ordered most recently updated first
+        int position = 0;
+        for (Node node : notebooksContainer.getChildren()) {
+            NotebookSummary other = (NotebookSummary) node.getUserData();
+            if (other != null && other.getUpdatedAt().isAfter(summary.getUpdatedAt())) {
+                position++;
+            }
+        }
+        notebooksContainer.getChildren().add(position, updated);
+        applyNameFilter();
     }
 
     @FXML
@@ -58,9 +198,10 @@ public class DashboardController {
 
     protected void loadNotebooks() {
         notebooksContainer.getChildren().clear();
+        cardsById.clear();
         
         try {
-            List<Notebook> notebooks = storageService.loadAllNotebooks();
+            List<NotebookSummary> notebooks = storageService.listNotebookSummaries();
             System.out.println("Loaded " + notebooks.size() + " notebooks");
             
             if (notebooks.isEmpty()) {
@@ -69,19 +210,27 @@ public class DashboardController {
                 emptyLabel.setPadding(new Insets(40));
                 notebooksContainer.getChildren().add(emptyLabel);
             } else {
-                for (Notebook notebook : notebooks) {
+                for (NotebookSummary notebook : notebooks) {
                     System.out.println("Adding notebook card: " + notebook.getName());
-                    notebooksContainer.getChildren().add(createNotebookCard(notebook));
+                    HBox card = createNotebookCard(notebook);
+                    cardsById.put(notebook.getId(), card);
+                    notebooksContainer.getChildren().add(card);
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
             showError("Failed to load notebooks: " + e.getMessage());
         }
+        if (isSearching()) {
+            showSearchResults();
+        } else {
+            applyNameFilter();
+        }
     }
 
-    private HBox createNotebookCard(Notebook notebook) {
+    private HBox createNotebookCard(NotebookSummary notebook) {
         HBox card = new HBox();
+        card.setUserData(notebook);
         card.setStyle("-fx-background-color: #141414; -fx-border-color: #333333; -fx-border-width: 1; -fx-border-radius: 8; -fx-background-radius: 8; -fx-cursor: hand;");
         card.setPadding(new Insets(20));
         card.setSpacing(16);
@@ -123,9 +272,11 @@ public class DashboardController {
         return card;
     }
 
-    private void openNotebook(Notebook notebook) {
+    private void openNotebook(NotebookSummary summary) {
         try {
-            System.out.println("Opening notebook: " + notebook.getName());
+            System.out.println("Opening notebook: " + summary.getName());
+            // Only now load the full notebook with its notes and chat history
+            Notebook notebook = storageService.loadNotebook(summary.getId());
             FXMLLoader loader = new FXMLLoader(getClass().getResource("notebook-view.fxml"));
             Parent root = loader.load();
             NotebookController controller = loader.getController();
@@ -135,6 +286,7 @@ public class DashboardController {
                 System.err.println("Controller is null!");
             }
 
+            storageService.removeChangeListener(changeListener);
             Stage stage = (Stage) createNotebookButton.getScene().getWindow();
             Scene scene = new Scene(root, 1400, 900);
             scene.setFill(javafx.scene.paint.Color.BLACK);
@@ -146,7 +298,7 @@ public class DashboardController {
         }
     }
 
-    private void deleteNotebook(Notebook notebook) {
+    private void deleteNotebook(NotebookSummary notebook) {
         Alert confirmDialog = new Alert(Alert.AlertType.CONFIRMATION);
         confirmDialog.setTitle("Delete Notebook");
         confirmDialog.setHeaderText("Delete \"" + notebook.getName() + "\"?");
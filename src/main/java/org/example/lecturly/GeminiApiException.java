@@ -0,0 +1,17 @@
+package org.example.lecturly;
+
+/**
+ * Thrown when the Gemini API answers a request with an error status
+ */
+public class GeminiApiException extends Exception {
+    private final int statusCode;
+
+    public GeminiApiException(int statusCode, String body) {
+        super("API Error " + statusCode + ": " + body);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -2,103 +2,646 @@ package org.example.lecturly;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 public class GeminiChatService {
     private String apiKey;
-    private HttpClient httpClient;
+    private ResilientClient apiClient;
     private Gson gson;
     private List<JsonObject> conversationHistory;
     private String notesContext;
-    private static final String API_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent";
+    private final NotesRetriever retriever = new NotesRetriever();
+    private static final int FULL_NOTES_MAX_CHARS = 6000;
+    private static final int RELEVANT_CHUNKS = 4;
+    private static final int CACHE_KEY_HISTORY_MESSAGES = 4;
+    private static final String MODEL = "gemini-2.5-flash";
+    private static final String BASE_URL_PROPERTY = "lecturly.gemini.baseUrl";
+    private static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com/v1beta";
+    private static final String TIMEOUT_PROPERTY = "lecturly.chat.timeoutSeconds";
+    private static final int DEFAULT_TIMEOUT_SECONDS = 120;
+    private static final String CONTEXT_CACHE_PROPERTY = "lecturly.chat.contextCache";
+    private static final String CONTEXT_CACHE_TTL_PROPERTY = "lecturly.chat.contextCache.ttlMinutes";
+    private static final int DEFAULT_CONTEXT_CACHE_TTL_MINUTES = 60;
+    private static final String HISTORY_TOKENS_PROPERTY = "lecturly.chat.historyTokens";
+    private static final int DEFAULT_HISTORY_TOKENS = 8000;
+    private static final ExecutorService SUMMARY_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-history-summarizer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final String apiUrl;
+    private final String streamUrl;
+    private final ResponseCache responseCache;
+    private final int historyTokenBudget;
+    private final Duration requestTimeout;
+    private final NotesContextCache contextCache;
+    // Rolling summary of conversationHistory[0, summarizedCount), sent in place of those turns
+    private String historySummary;
+    private int summarizedCount;
+    private boolean summarizing;
+    private int historyGeneration;
 
     public GeminiChatService(String apiKey) {
+        this(apiKey, baseUrl(), ResilientClient.gemini());
+    }
+
+    /**
+     * @param baseUrl API root including the version, e.g. http://localhost:8765/v1beta for a local stub
+     */
+    GeminiChatService(String apiKey, String baseUrl, ResilientClient apiClient) {
         this.apiKey = apiKey;
-        this.httpClient = HttpClient.newHttpClient();
+        this.apiClient = apiClient;
+        this.apiUrl = modelUrl(baseUrl) + ":generateContent";
+        this.streamUrl = modelUrl(baseUrl) + ":streamGenerateContent?alt=sse";
         this.gson = new Gson();
         this.conversationHistory = new ArrayList<>();
         this.notesContext = null;
+        this.responseCache = ResponseCache.getInstance();
+        this.historyTokenBudget = Integer.getInteger(HISTORY_TOKENS_PROPERTY, DEFAULT_HISTORY_TOKENS);
+        this.requestTimeout = Duration.ofSeconds(Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_SECONDS));
+        this.contextCache = Boolean.parseBoolean(System.getProperty(CONTEXT_CACHE_PROPERTY, "true"))
+                ? new NotesContextCache(apiClient, baseUrl, MODEL, apiKey,
+                        Duration.ofMinutes(Integer.getInteger(CONTEXT_CACHE_TTL_PROPERTY, DEFAULT_CONTEXT_CACHE_TTL_MINUTES)), requestTimeout)
+                : null;
     }
     
+    /**
+     * Pre-connect to the Gemini API so the first message skips the connection setup
+     */
+    public static void warmUp() {
+        HttpClients.warmUp(HttpClients.gemini(), modelUrl(baseUrl()));
+    }
+
+    private static String baseUrl() {
+        return System.getProperty(BASE_URL_PROPERTY, DEFAULT_BASE_URL);
+    }
+
+    private static String modelUrl(String baseUrl) {
+        return baseUrl + "/models/" + MODEL;
+    }
+
+    /**
+     * Delete the notes' server-side cache entry, which is billed while it lives.
+     * Call when the chat is closed; later messages send the notes inline.
+     */
+    public void close() {
+        if (contextCache != null) {
+            contextCache.close();
+        }
+    }
+
+    /**
+     * Name of the server-side cache entry holding the notes, or null if there is none
+     */
+    String cachedNotesName() {
+        return contextCache != null ? contextCache.liveName() : null;
+    }
+
+    /**
+     * Delete the cache entries of every chat still open, e.g. when the app stops
+     */
+    public static void closeAll() {
+        NotesContextCache.closeAll();
+    }
+
     /**
      * Set notes context that will be included in all API requests
      */
     public void setNotesContext(String notes) {
         this.notesContext = notes != null && !notes.trim().isEmpty() ? notes.trim() : null;
+        // Only chunks that changed are re-indexed, so this is cheap to call on every edit
+        retriever.update(notesContext);
+    }
+
+    /**
+     * System instruction for a message. Short notes are sent whole; for long notes
+     * only the passages most relevant to the message are sent, with the notes' outline.
+     */
+    private String buildSystemInstruction(String userMessage) {
+        if (notesContext.length() <= FULL_NOTES_MAX_CHARS) {
+            return fullNotesInstruction(notesContext);
+        }
+        List<String> passages = retriever.retrieve(userMessage, RELEVANT_CHUNKS);
+        if (passages.isEmpty()) {
+            // Follow-ups like "explain that again" refer to the previous question
+            passages = retriever.retrieve(previousUserMessage(), RELEVANT_CHUNKS);
+        }
+        if (passages.isEmpty()) {
+            passages = retriever.leading(RELEVANT_CHUNKS);
+        }
+        return "You are a helpful assistant. The user has provided notes with these sections:\n\n" + retriever.outline()
+                + "\nThese are the parts of the notes most relevant to the current question:\n\n"
+                + String.join("\n\n---\n\n", passages)
+                + "\n\nPlease use these notes to provide accurate and relevant answers to their questions.";
+    }
+
+    private static String fullNotesInstruction(String notes) {
+        return "You are a helpful assistant. The user has provided the following notes for context:\n\n" + notes + "\n\nPlease use these notes to provide accurate and relevant answers to their questions.";
+    }
+
+    /**
+     * Text of the user message before the one being answered, or an empty string
+     */
+    private synchronized String previousUserMessage() {
+        for (int i = conversationHistory.size() - 1; i >= 0; i--) {
+            JsonObject content = conversationHistory.get(i);
+            if ("user".equals(content.get("role").getAsString())) {
+                return content.getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Receives a reply as it is generated, on an HTTP client thread (or the calling thread for a cached reply)
+     */
+    public interface StreamListener {
+        void onText(String text);
     }
 
     public String chat(String userMessage) throws Exception {
-        // Add user message to history (without notes context prefix)
-        JsonObject userContent = new JsonObject();
-        userContent.addProperty("role", "user");
-        JsonArray userParts = new JsonArray();
-        JsonObject userPart = new JsonObject();
-        userPart.addProperty("text", userMessage);
-        userParts.add(userPart);
-        userContent.add("parts", userParts);
-        conversationHistory.add(userContent);
+        return await(chatAsync(userMessage, null));
+    }
 
-        try {
-            // Create request body
-            JsonObject requestBody = new JsonObject();
-            
-            // Add system instruction with notes context if available
-            if (notesContext != null && !notesContext.isEmpty()) {
-                JsonObject systemInstruction = new JsonObject();
-                JsonArray systemParts = new JsonArray();
-                JsonObject systemPart = new JsonObject();
-                systemPart.addProperty("text", "You are a helpful assistant. The user has provided the following notes for context:\n\n" + notesContext + "\n\nPlease use these notes to provide accurate and relevant answers to their questions.");
-                systemParts.add(systemPart);
-                systemInstruction.add("parts", systemParts);
-                requestBody.add("systemInstruction", systemInstruction);
+    /**
+     * Like chat, but the reply is streamed to the listener piece by piece as the model
+     * generates it. Returns the full reply once the stream ends.
+     */
+    public String chatStreaming(String userMessage, StreamListener listener) throws Exception {
+        return await(chatAsync(userMessage, listener));
+    }
+
+    /**
+     * Send a message without blocking. The reply is streamed to the listener if one is given.
+     * The message and reply are added to the history together, and only if the call succeeds.
+     * The call fails with HttpTimeoutException after the request timeout; cancelling the
+     * returned future aborts the request.
+     */
+    public CompletableFuture<String> chatAsync(String userMessage, StreamListener listener) {
+        ChatCall call = new ChatCall();
+        JsonObject userContent = textContent("user", userMessage);
+        int generation;
+        synchronized (this) {
+            generation = historyGeneration;
+        }
+
+        // Long notes are sent whole once, as a server-side cached context, and referenced by
+        // name; until that entry exists only the passages relevant to the message are sent
+        String notes = notesContext;
+        String systemInstruction = null;
+        NotesContextCache.Entry cachedEntry = null;
+        if (notes != null && !notes.isEmpty()) {
+            if (contextCache != null && notes.length() > FULL_NOTES_MAX_CHARS) {
+                systemInstruction = fullNotesInstruction(notes);
+                cachedEntry = contextCache.entryFor(systemInstruction);
             }
-            
-            JsonArray contentsArray = new JsonArray();
-            for (JsonObject content : conversationHistory) {
-                contentsArray.add(content);
+            if (cachedEntry == null) {
+                systemInstruction = buildSystemInstruction(userMessage);
             }
-            requestBody.add("contents", contentsArray);
+        }
+        JsonArray contents = buildContents(userContent);
+        String cachedContent = cachedEntry != null ? cachedEntry.name() : null;
+        JsonObject requestBody = buildRequestBody(systemInstruction, cachedContent, contents);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI(API_URL + "?key=" + apiKey))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody.toString()))
-                    .build();
+        String cacheKey = null;
+        if (responseCache != null) {
+            cacheKey = cacheKey(systemInstruction, userMessage);
+            String cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                if (listener != null) {
+                    listener.onText(cached);
+                }
+                call.succeed(cached, () -> commitTurn(generation, userContent, cached));
+                return call;
+            }
+        }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        String key = cacheKey;
+        CompletableFuture.delayedExecutor(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> call.fail(new HttpTimeoutException("No complete reply within " + requestTimeout.toSeconds() + " seconds")));
+        // The cached notes are not in the body but still count against the tokens-per-minute quota
+        CompletableFuture<String> reply = requestReply(requestBody, cachedEntry != null ? cachedEntry.tokens() : 0, listener, call);
+        if (cachedContent != null) {
+            String rejected = cachedContent;
+            reply = reply.exceptionallyCompose(error -> {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof GeminiApiException apiError && isMissingCachedContent(apiError) && !call.isDone()) {
+                    // The entry expired or was deleted on the server: send the notes inline instead
+                    contextCache.invalidate(rejected);
+                    return requestReply(buildRequestBody(buildSystemInstruction(userMessage), null, contents), 0, listener, call);
+                }
+                return CompletableFuture.failedFuture(cause);
+            });
+        }
+        reply.whenComplete((text, error) -> {
+            if (error != null) {
+                call.fail(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            boolean answered = text != null;
+            String assistantResponse = answered ? text : "Unable to parse response";
+            call.succeed(assistantResponse, () -> {
+                commitTurn(generation, userContent, assistantResponse);
+                if (key != null && answered) {
+                    responseCache.put(key, assistantResponse);
+                }
+            });
+        });
+        return call;
+    }
+
+    private static JsonObject buildRequestBody(String systemInstruction, String cachedContent, JsonArray contents) {
+        // Create request body
+        JsonObject requestBody = new JsonObject();
+
+        if (cachedContent != null) {
+            // The cached entry carries the system instruction
+            requestBody.addProperty("cachedContent", cachedContent);
+        } else if (systemInstruction != null) {
+            // Add system instruction with notes context
+            JsonObject instruction = new JsonObject();
+            JsonArray systemParts = new JsonArray();
+            JsonObject systemPart = new JsonObject();
+            systemPart.addProperty("text", systemInstruction);
+            systemParts.add(systemPart);
+            instruction.add("parts", systemParts);
+            requestBody.add("systemInstruction", instruction);
+        }
+
+        requestBody.add("contents", contents);
+        return requestBody;
+    }
+
+    /**
+     * @param cachedTokens tokens of the cached content the request references, if any
+     */
+    private CompletableFuture<String> requestReply(JsonObject requestBody, int cachedTokens, StreamListener listener, ChatCall call) {
+        return listener != null
+                ? streamGenerateContent(requestBody, cachedTokens, listener, call)
+                : generateContent(requestBody, cachedTokens, call).thenApply(this::extractAnsweredText);
+    }
+
+    /**
+     * Whether an error can mean the referenced cachedContents entry no longer exists;
+     * the API answers 403 "CachedContent not found (or permission denied)"
+     */
+    private static boolean isMissingCachedContent(GeminiApiException error) {
+        return error.getStatusCode() == 403 || error.getStatusCode() == 404;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reply text of a generateContent response, or null if it has no candidates
+     */
+    private String extractAnsweredText(JsonObject responseJson) {
+        return responseJson.has("candidates") ? extractTextFromResponse(responseJson) : null;
+    }
+
+    private HttpRequest.Builder newRequest(String url, String requestBody) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody));
+    }
 
+    /**
+     * @param cachedTokens tokens of the cached content the request references, if any
+     * @param call the chat turn this answers, or null for background work such as summaries
+     */
+    private CompletableFuture<JsonObject> generateContent(JsonObject requestBody, int cachedTokens, ChatCall call) {
+        String body = requestBody.toString();
+        CompletableFuture<HttpResponse<String>> exchange = apiClient.sendAsync(
+                newRequest(apiUrl + "?key=" + apiKey, body).build(), HttpResponse.BodyHandlers.ofString(), true,
+                call != null ? RequestScheduler.Priority.INTERACTIVE : RequestScheduler.Priority.BACKGROUND,
+                TokenEstimator.estimate(body) + cachedTokens);
+        if (call != null) {
+            call.onAbort(() -> exchange.cancel(true));
+        }
+        return exchange.thenApply(response -> {
             if (response.statusCode() != 200) {
-                throw new Exception("API Error " + response.statusCode() + ": " + response.body());
+                throw new CompletionException(new GeminiApiException(response.statusCode(), response.body()));
             }
+            return gson.fromJson(response.body(), JsonObject.class);
+        });
+    }
 
-            JsonObject responseJson = gson.fromJson(response.body(), JsonObject.class);
+    /**
+     * Post to streamGenerateContent and read the server-sent events as they arrive,
+     * passing each piece of text to the listener
+     * @return the full text, or null if the stream carried none
+     */
+    private CompletableFuture<String> streamGenerateContent(JsonObject requestBody, int cachedTokens, StreamListener listener, ChatCall call) {
+        EventStreamSubscriber events = new EventStreamSubscriber(listener);
+        String body = requestBody.toString();
+        CompletableFuture<HttpResponse<Void>> exchange = apiClient.sendAsync(
+                newRequest(streamUrl + "&key=" + apiKey, body).header("Accept", "text/event-stream").build(),
+                responseInfo -> {
+                    events.statusCode = responseInfo.statusCode();
+                    return HttpResponse.BodySubscribers.fromLineSubscriber(events);
+                }, false, RequestScheduler.Priority.INTERACTIVE, TokenEstimator.estimate(body) + cachedTokens);
+        call.onAbort(() -> {
+            exchange.cancel(true);
+            events.cancel();
+        });
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                events.result.completeExceptionally(error);
+            }
+        });
+        return events.result;
+    }
 
-            // Extract text from response
-            String assistantResponse = extractTextFromResponse(responseJson);
+    /**
+     * Parses server-sent events line by line as the body arrives, without holding a thread
+     */
+    private class EventStreamSubscriber implements Flow.Subscriber<String> {
+        private final StreamListener listener;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder data = new StringBuilder();
+        private volatile int statusCode;
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
 
-            // Add assistant response to history
-            JsonObject assistantContent = new JsonObject();
-            assistantContent.addProperty("role", "model");
-            JsonArray assistantParts = new JsonArray();
-            JsonObject assistantPart = new JsonObject();
-            assistantPart.addProperty("text", assistantResponse);
-            assistantParts.add(assistantPart);
-            assistantContent.add("parts", assistantParts);
-            conversationHistory.add(assistantContent);
+        EventStreamSubscriber(StreamListener listener) {
+            this.listener = listener;
+        }
 
-            return assistantResponse;
-        } catch (Exception e) {
-            // Remove the user message if API call fails
-            conversationHistory.remove(conversationHistory.size() - 1);
-            throw e;
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (cancelled || result.isDone()) {
+                return;
+            }
+            if (statusCode != 200) {
+                // Collect the error body
+                data.append(line).append('\n');
+                return;
+            }
+            try {
+                if (line.isEmpty()) {
+                    // A blank line ends an event
+                    dispatchEvent(data, text, listener);
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+                }
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+                cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (statusCode != 200) {
+                result.completeExceptionally(new GeminiApiException(statusCode, data.toString().strip()));
+                return;
+            }
+            try {
+                dispatchEvent(data, text, listener);
+                result.complete(text.length() > 0 ? text.toString() : null);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    private void dispatchEvent(StringBuilder data, StringBuilder text, StreamListener listener) throws Exception {
+        if (data.length() == 0) {
+            return;
+        }
+        JsonObject chunk = gson.fromJson(data.toString(), JsonObject.class);
+        data.setLength(0);
+        if (chunk.has("error")) {
+            JsonObject error = chunk.getAsJsonObject("error");
+            throw new Exception("API Error: " + (error.has("message") ? error.get("message").getAsString() : error.toString()));
+        }
+        if (!chunk.has("candidates") || chunk.getAsJsonArray("candidates").isEmpty()) {
+            return;
+        }
+        JsonObject candidate = chunk.getAsJsonArray("candidates").get(0).getAsJsonObject();
+        if (!candidate.has("content") || !candidate.getAsJsonObject("content").has("parts")) {
+            return;
+        }
+        StringBuilder delta = new StringBuilder();
+        for (JsonElement part : candidate.getAsJsonObject("content").getAsJsonArray("parts")) {
+            JsonObject partObject = part.getAsJsonObject();
+            if (partObject.has("text") && !(partObject.has("thought") && partObject.get("thought").getAsBoolean())) {
+                delta.append(partObject.get("text").getAsString());
+            }
+        }
+        if (delta.length() > 0) {
+            text.append(delta);
+            listener.onText(delta.toString());
+        }
+    }
+
+    /**
+     * Contents for a request: the rolling summary, then the most recent turns that
+     * fit the token budget, then the message being sent
+     */
+    private synchronized JsonArray buildContents(JsonObject userContent) {
+        int budget = historyTokenBudget;
+        JsonArray contents = new JsonArray();
+        if (historySummary != null) {
+            contents.add(textContent("user", "Summary of our conversation so far:\n" + historySummary));
+            contents.add(textContent("model", "Understood. I'll keep that in mind."));
+            budget -= TokenEstimator.estimate(historySummary);
+        }
+
+        int end = conversationHistory.size();
+        int start = end;
+        int used = TokenEstimator.estimate(textOf(userContent));
+        while (start > summarizedCount) {
+            int tokens = TokenEstimator.estimate(textOf(conversationHistory.get(start - 1)));
+            if (used + tokens > budget) {
+                // Older turns not summarized yet are dropped until the summary catches up
+                break;
+            }
+            used += tokens;
+            start--;
+        }
+        // The window must open with a user turn
+        while (start < end && !"user".equals(conversationHistory.get(start).get("role").getAsString())) {
+            start++;
+        }
+        for (int i = start; i < end; i++) {
+            contents.add(conversationHistory.get(i));
+        }
+        contents.add(userContent);
+        return contents;
+    }
+
+    /**
+     * Once the unsummarized turns exceed the budget, fold the older ones into the
+     * rolling summary on a background thread, keeping about half the budget of recent turns
+     */
+    private synchronized void summarizeIfOverBudget() {
+        if (summarizing) {
+            return;
+        }
+        int used = 0;
+        for (int i = conversationHistory.size() - 1; i >= summarizedCount && used <= historyTokenBudget; i--) {
+            used += TokenEstimator.estimate(textOf(conversationHistory.get(i)));
+        }
+        if (used <= historyTokenBudget) {
+            return;
+        }
+        int keepTokens = historyTokenBudget / 2;
+        int foldEnd = conversationHistory.size();
+        used = 0;
+        while (foldEnd > summarizedCount) {
+            used += TokenEstimator.estimate(textOf(conversationHistory.get(foldEnd - 1)));
+            if (used > keepTokens) {
+                break;
+            }
+            foldEnd--;
+        }
+        // Keep the retained turns starting with a user turn
+        while (foldEnd < conversationHistory.size() - 1
+                && !"user".equals(conversationHistory.get(foldEnd).get("role").getAsString())) {
+            foldEnd++;
+        }
+        if (foldEnd <= summarizedCount) {
+            return;
+        }
+
+        StringBuilder transcript = new StringBuilder();
+        for (int i = summarizedCount; i < foldEnd; i++) {
+            JsonObject content = conversationHistory.get(i);
+            transcript.append("user".equals(content.get("role").getAsString()) ? "User: " : "Assistant: ")
+                    .append(textOf(content)).append("\n\n");
+        }
+        String previousSummary = historySummary;
+        int from = summarizedCount;
+        int to = foldEnd;
+        int generation = historyGeneration;
+        summarizing = true;
+        SUMMARY_EXECUTOR.execute(() -> {
+            String summary = null;
+            try {
+                summary = summarize(previousSummary, transcript.toString());
+            } catch (Exception e) {
+                System.err.println("Failed to summarize chat history: " + e.getMessage());
+            }
+            synchronized (this) {
+                summarizing = false;
+                if (summary != null && generation == historyGeneration && from == summarizedCount) {
+                    historySummary = summary;
+                    summarizedCount = to;
+                }
+            }
+        });
+    }
+
+    private String summarize(String previousSummary, String transcript) throws Exception {
+        int maxWords = Math.max(100, historyTokenBudget / 8);
+        String prompt = "Summarize this conversation between a student and an assistant about the student's notes in at most "
+                + maxWords + " words. Keep the facts, definitions, decisions and open questions the rest of the conversation may refer to.\n\n"
+                + (previousSummary != null ? "Summary of the conversation before this part:\n" + previousSummary + "\n\n" : "")
+                + "Conversation:\n" + transcript;
+        JsonObject requestBody = new JsonObject();
+        JsonArray contents = new JsonArray();
+        contents.add(textContent("user", prompt));
+        requestBody.add("contents", contents);
+        JsonObject responseJson = await(generateContent(requestBody, 0, null));
+        if (!responseJson.has("candidates")) {
+            throw new Exception("No summary in response");
         }
+        return extractTextFromResponse(responseJson).trim();
+    }
+
+    private static JsonObject textContent(String role, String text) {
+        JsonObject content = new JsonObject();
+        content.addProperty("role", role);
+        JsonArray parts = new JsonArray();
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        parts.add(part);
+        content.add("parts", parts);
+        return content;
+    }
+
+    private static String textOf(JsonObject content) {
+        return content.getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+    }
+
+    /**
+     * Add a message and its reply to the history, unless the history was cleared or restored meanwhile
+     */
+    private synchronized void commitTurn(int generation, JsonObject userContent, String assistantResponse) {
+        if (generation != historyGeneration) {
+            return;
+        }
+        conversationHistory.add(userContent);
+        conversationHistory.add(textContent("model", assistantResponse));
+        summarizeIfOverBudget();
+    }
+
+    /**
+     * Response cache key: model, system instruction, the last few turns before this message, and the message
+     */
+    private synchronized String cacheKey(String systemInstruction, String userMessage) {
+        List<String> window = new ArrayList<>();
+        int end = conversationHistory.size();
+        for (int i = Math.max(0, end - CACHE_KEY_HISTORY_MESSAGES); i < end; i++) {
+            JsonObject content = conversationHistory.get(i);
+            window.add(content.get("role").getAsString() + ": "
+                    + content.getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString());
+        }
+        return ResponseCache.key(MODEL, systemInstruction, window, userMessage);
     }
 
     private String extractTextFromResponse(JsonObject responseJson) {
@@ -127,11 +670,21 @@ public class GeminiChatService {
         return "Unable to parse response";
     }
 
-    public void clearHistory() {
+    public synchronized void clearHistory() {
         conversationHistory.clear();
+        resetSummary();
+    }
+
+    private void resetSummary() {
+        historySummary = null;
+        summarizedCount = 0;
+        historyGeneration++;
     }
 
-    public List<JsonObject> getHistory() {
+    /**
+     * The full conversation, including turns already folded into the summary
+     */
+    public synchronized List<JsonObject> getHistory() {
         return new ArrayList<>(conversationHistory);
     }
 
@@ -142,21 +695,23 @@ public class GeminiChatService {
      * @param notesContext Optional notes context to prepend to the first user message
      */
     public void restoreHistory(List<Notebook.ChatMessage> messages, String notesContext) {
-        conversationHistory.clear();
-        
-        for (Notebook.ChatMessage msg : messages) {
-            JsonObject content = new JsonObject();
-            content.addProperty("role", msg.getRole().equals("user") ? "user" : "model");
-            JsonArray parts = new JsonArray();
-            JsonObject part = new JsonObject();
+        synchronized (this) {
+            conversationHistory.clear();
+            resetSummary();
+            for (Notebook.ChatMessage msg : messages) {
+                JsonObject content = new JsonObject();
+                content.addProperty("role", msg.getRole().equals("user") ? "user" : "model");
+                JsonArray parts = new JsonArray();
+                JsonObject part = new JsonObject();
             
-            // Use the message as-is, notes context is handled via system instruction
-            String messageText = msg.getContent();
+                // Use the message as-is, notes context is handled via system instruction
+                String messageText = msg.getContent();
             
-            part.addProperty("text", messageText);
-            parts.add(part);
-            content.add("parts", parts);
-            conversationHistory.add(content);
+                part.addProperty("text", messageText);
+                parts.add(part);
+                content.add("parts", parts);
+                conversationHistory.add(content);
+            }
         }
         
         // Set notes context if provided
@@ -0,0 +1,112 @@
+package org.example.lecturly;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application-wide HTTP clients. Sharing them means one connection pool and one
+ * selector thread for the whole app, and a connection opened for one notebook's
+ * chat is reused by the next instead of paying for a new TLS handshake.
+ *
+ * The Gemini client negotiates HTTP/2, so every conversation multiplexes over a
+ * single connection. The backend client talks HTTP/1.1 to the local FastAPI
+ * server, which does not speak cleartext HTTP/2, so no upgrade is attempted.
+ *
+ * The executor that runs response callbacks is set with -Dlecturly.http.executor:
+ * "default" (the client's own pool), "virtual" (a virtual thread per task) or a
+ * number of threads.
+ */
+public final class HttpClients {
+    private static final String EXECUTOR_PROPERTY = "lecturly.http.executor";
+    private static final Duration GEMINI_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration BACKEND_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration WARM_UP_TIMEOUT = Duration.ofSeconds(10);
+    // Idle connections are closed after a while; warming up again within this window is pointless
+    private static final long WARM_UP_INTERVAL_MS = 20_000;
+
+    private static final Executor EXECUTOR = createExecutor(System.getProperty(EXECUTOR_PROPERTY, "default"));
+    private static final HttpClient GEMINI = newClient(HttpClient.Version.HTTP_2, GEMINI_CONNECT_TIMEOUT);
+    private static final HttpClient BACKEND = newClient(HttpClient.Version.HTTP_1_1, BACKEND_CONNECT_TIMEOUT);
+    private static final Map<String, Long> lastWarmUps = new ConcurrentHashMap<>();
+
+    private HttpClients() {
+    }
+
+    /**
+     * Client for the Gemini API
+     */
+    public static HttpClient gemini() {
+        return GEMINI;
+    }
+
+    /**
+     * Client for the local audio backend
+     */
+    public static HttpClient backend() {
+        return BACKEND;
+    }
+
+    /**
+     * Open a connection to the host of a URL in the background, so the first real
+     * request does not wait for DNS, TCP and TLS. Failures are ignored.
+     */
+    public static void warmUp(HttpClient client, String url) {
+        URI uri = URI.create(url);
+        String origin = uri.getScheme() + "://" + uri.getAuthority() + "/";
+        long now = System.currentTimeMillis();
+        Long last = lastWarmUps.get(origin);
+        if (last != null && now - last < WARM_UP_INTERVAL_MS) {
+            return;
+        }
+        lastWarmUps.put(origin, now);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(origin))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(WARM_UP_TIMEOUT)
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .exceptionally(e -> {
+                    lastWarmUps.remove(origin);
+                    System.err.println("Could not pre-connect to " + origin + ": " + e.getMessage());
+                    return null;
+                });
+    }
+
+    private static HttpClient newClient(HttpClient.Version version, Duration connectTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout);
+        if (EXECUTOR != null) {
+            builder.executor(EXECUTOR);
+        }
+        return builder.build();
+    }
+
+    private static Executor createExecutor(String setting) {
+        if (setting.equals("default")) {
+            return null;
+        }
+        if (setting.equals("virtual")) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        try {
+            int threads = Integer.parseInt(setting);
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "http-client-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + EXECUTOR_PROPERTY + " value: " + setting);
+            return null;
+        }
+    }
+}
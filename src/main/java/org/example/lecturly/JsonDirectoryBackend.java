@@ -0,0 +1,128 @@
+package org.example.lecturly;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Default backend: one JSON file per notebook in the notebooks directory.
+ * Notebooks with long notes are stored GZIP-compressed under the same name.
+ */
+public class JsonDirectoryBackend implements StorageBackend {
+    private static final String EXTENSION = ".json";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final Gson gson;
+    private final int compressAbove;
+
+    /**
+     * @param compressAbove notes length above which files are compressed, negative to never compress
+     */
+    public JsonDirectoryBackend(Path directory, Gson gson, int compressAbove) throws IOException {
+        this.directory = directory;
+        this.gson = gson;
+        this.compressAbove = compressAbove;
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public void write(Notebook notebook) throws IOException {
+        Path notebookFile = file(notebook.getId());
+        Path tempFile = directory.resolve(notebook.getId() + EXTENSION + ".tmp");
+        // Stream straight into the file instead of building the whole JSON string first
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             JsonWriter writer = gson.newJsonWriter(new BufferedWriter(newWriter(channel, notebook), WRITE_BUFFER_SIZE))) {
+            synchronized (notebook) {
+                gson.toJson(notebook, Notebook.class, writer);
+            }
+        }
+        Files.move(tempFile, notebookFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Notebook read(String id) throws IOException {
+        Path notebookFile = file(id);
+        if (!Files.exists(notebookFile)) {
+            throw new IOException("Notebook not found: " + id);
+        }
+        try (JsonReader reader = gson.newJsonReader(new InputStreamReader(
+                NotebookCompression.decompress(Files.newInputStream(notebookFile)), StandardCharsets.UTF_8))) {
+            return gson.fromJson(reader, Notebook.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed notebook file " + notebookFile.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Writer newWriter(FileChannel channel, Notebook notebook) throws IOException {
+        if (NotebookCompression.shouldCompress(notebook, compressAbove)) {
+            OutputStream out = NotebookCompression.compress(Channels.newOutputStream(channel));
+            return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        }
+        return Channels.newWriter(channel, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return Files.exists(file(id));
+    }
+
+    @Override
+    public long version(String id) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file(id), BasicFileAttributes.class);
+            return attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS) * 31 + attributes.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(file(id));
+    }
+
+    @Override
+    public List<String> listIds() throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(EXTENSION))
+                    .map(name -> name.substring(0, name.length() - EXTENSION.length()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void close() {
+        // Every write is complete when write() returns
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    private Path file(String id) {
+        return directory.resolve(id + EXTENSION);
+    }
+}
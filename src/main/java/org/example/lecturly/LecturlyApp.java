@@ -46,6 +46,27 @@ public class LecturlyApp extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // Write out any notebook saves still waiting on the write-behind queue
+        try {
+            NotebookStorageService.getInstance().close();
+        } catch (IOException e) {
+            System.err.println("Failed to save notebooks on exit: " + e.getMessage());
+        }
+        // Cached notes are billed until they expire, so delete those of chats still open
+        GeminiChatService.closeAll();
+        for (ResilientClient client : new ResilientClient[] {ResilientClient.gemini(), ResilientClient.backend()}) {
+            if (client.getRequests() > 0) {
+                System.out.println(client.metricsSummary());
+            }
+        }
+        RequestScheduler scheduler = RequestScheduler.gemini();
+        if (scheduler.getGranted(RequestScheduler.Priority.INTERACTIVE) + scheduler.getGranted(RequestScheduler.Priority.BACKGROUND) > 0) {
+            System.out.println(scheduler.metricsSummary());
+        }
+    }
+
     private void loadBarlowCondensedFonts() {
         try {
             // Try multiple possible paths for the font directory
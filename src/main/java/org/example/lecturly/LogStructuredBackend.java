@@ -0,0 +1,507 @@
+package org.example.lecturly;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file, log-structured notebook store.
+ *
+ * Every write appends a record to notebooks.db and every delete appends a
+ * tombstone, so there is one file no matter how many notebooks exist. An
+ * in-memory id to offset map makes a load one positional read. The map is
+ * saved to notebooks.db.idx on close and memory-mapped on the next open, so
+ * only records appended after it was written need to be scanned.
+ *
+ * Record layout: type (1 byte), id length (2), id (UTF-8), payload length (4),
+ * payload (notebook JSON), CRC32 of the payload (4). Payloads of notebooks
+ * with long notes are GZIP-compressed, recognised on read by the GZIP header.
+ *
+ * Only one process may append to or compact the store, guarded by a lock on
+ * notebooks.db.lock. Another Lecturly window opens it read-only and sees the
+ * notebooks stored when it opened.
+ */
+public class LogStructuredBackend implements StorageBackend {
+    private static final long DATA_MAGIC = 0x4C4543544C594442L; // "LECTLYDB"
+    private static final long INDEX_MAGIC = 0x4C4543544C594958L; // "LECTLYIX"
+    private static final int DATA_HEADER_SIZE = 16;
+    private static final int INDEX_HEADER_SIZE = 36;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_COMPACTION_GARBAGE = 8L * 1024 * 1024;
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final FileChannel lockChannel;
+    private final boolean writable;
+    private final Gson gson;
+    private final int compressAbove;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Location> offsets = new HashMap<>();
+    private FileChannel channel;
+    private long generation;
+    private long end;
+    private long garbageBytes;
+
+    /**
+     * @param compressAbove notes length above which payloads are compressed, negative to never compress
+     */
+    public LogStructuredBackend(Path dataFile, Gson gson, int compressAbove) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = dataFile.resolveSibling(dataFile.getFileName() + ".idx");
+        this.gson = gson;
+        this.compressAbove = compressAbove;
+        Files.createDirectories(dataFile.getParent());
+        // A lock file rather than the data file, which compaction replaces
+        lockChannel = FileChannel.open(dataFile.resolveSibling(dataFile.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock = lockChannel.tryLock();
+        writable = fileLock != null;
+        if (!writable) {
+            System.err.println("Notebook store is in use by another Lecturly window; opening it read-only");
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (writable && shouldCompact()) {
+            compact();
+        }
+    }
+
+    private void open() throws IOException {
+        if (!writable) {
+            channel = FileChannel.open(dataFile, StandardOpenOption.READ);
+            if (channel.size() < DATA_HEADER_SIZE) {
+                end = DATA_HEADER_SIZE;
+                return;
+            }
+        } else {
+            channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        if (channel.size() < DATA_HEADER_SIZE) {
+            generation = ThreadLocalRandom.current().nextLong();
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE).putLong(DATA_MAGIC).putLong(generation).flip();
+            writeFully(header, 0);
+            channel.truncate(DATA_HEADER_SIZE);
+            end = DATA_HEADER_SIZE;
+            return;
+        }
+        ByteBuffer header = readFully(0, DATA_HEADER_SIZE);
+        if (header.getLong() != DATA_MAGIC) {
+            throw new IOException("Not a notebook store: " + dataFile);
+        }
+        generation = header.getLong();
+
+        offsets.clear();
+        garbageBytes = 0;
+        long scanFrom = loadIndex();
+        scan(scanFrom);
+    }
+
+    /**
+     * Load the memory-mapped offset index if it belongs to this data file
+     * @return the data file position the index covers
+     */
+    private long loadIndex() {
+        if (!Files.exists(indexFile)) {
+            return DATA_HEADER_SIZE;
+        }
+        try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            if (buffer.remaining() < INDEX_HEADER_SIZE || buffer.getLong() != INDEX_MAGIC
+                    || buffer.getLong() != generation) {
+                return DATA_HEADER_SIZE;
+            }
+            long covered = buffer.getLong();
+            long garbage = buffer.getLong();
+            int count = buffer.getInt();
+            if (covered > channel.size()) {
+                return DATA_HEADER_SIZE;
+            }
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(id);
+                offsets.put(new String(id, StandardCharsets.UTF_8), new Location(buffer.getLong(), buffer.getInt(), buffer.getInt()));
+            }
+            garbageBytes = garbage;
+            return covered;
+        } catch (Exception e) {
+            System.err.println("Ignoring unreadable notebook store index: " + e.getMessage());
+            offsets.clear();
+            return DATA_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Replay records from a position; a torn or corrupt tail is truncated, or in a
+     * read-only store (where it may still be being written) ignored
+     */
+    private void scan(long position) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            long recordStart = position;
+            try {
+                ByteBuffer prefix = readFully(position, 3);
+                byte type = prefix.get();
+                int idLength = prefix.getShort() & 0xFFFF;
+                if (type != RECORD_PUT && type != RECORD_DELETE) {
+                    throw new IOException("bad record type");
+                }
+                String id = new String(readFully(position + 3, idLength).array(), StandardCharsets.UTF_8);
+                long lengthPosition = position + 3 + idLength;
+                int payloadLength = readFully(lengthPosition, 4).getInt();
+                long payloadStart = lengthPosition + 4;
+                if (payloadLength < 0 || payloadStart + payloadLength + 4 > size) {
+                    throw new IOException("truncated record");
+                }
+                int crc = readFully(payloadStart + payloadLength, 4).getInt();
+                if (crc != checksum(payloadStart, payloadLength)) {
+                    throw new IOException("checksum mismatch");
+                }
+                position = payloadStart + payloadLength + 4;
+                int recordLength = (int) (position - recordStart);
+                Location previous = type == RECORD_PUT
+                        ? offsets.put(id, new Location(payloadStart, payloadLength, recordLength))
+                        : offsets.remove(id);
+                garbageBytes += previous != null ? previous.recordLength : 0;
+                if (type == RECORD_DELETE) {
+                    garbageBytes += recordLength;
+                }
+            } catch (IOException e) {
+                if (writable) {
+                    System.err.println("Truncating notebook store at " + recordStart + ": " + e.getMessage());
+                    channel.truncate(recordStart);
+                }
+                break;
+            }
+        }
+        end = position;
+    }
+
+    @Override
+    public void write(Notebook notebook) throws IOException {
+        checkWritable();
+        lock.writeLock().lock();
+        try {
+            byte[] id = notebook.getId().getBytes(StandardCharsets.UTF_8);
+            long recordStart = end;
+            ByteBuffer header = ByteBuffer.allocate(3 + id.length + 4)
+                    .put(RECORD_PUT).putShort((short) id.length).put(id).putInt(0).flip();
+            writeFully(header, recordStart);
+            long payloadStart = recordStart + header.capacity();
+
+            // Stream the JSON into the log, then patch in its length and checksum
+            PositionalOutputStream out = new PositionalOutputStream(payloadStart);
+            // Closing the writer finishes a GZIP trailer but leaves the log channel open
+            try (JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new OutputStreamWriter(
+                    NotebookCompression.shouldCompress(notebook, compressAbove) ? NotebookCompression.compress(out) : out,
+                    StandardCharsets.UTF_8), WRITE_BUFFER_SIZE))) {
+                synchronized (notebook) {
+                    gson.toJson(notebook, Notebook.class, writer);
+                }
+            }
+            int payloadLength = (int) (out.position - payloadStart);
+            writeFully(ByteBuffer.allocate(4).putInt((int) out.crc.getValue()).flip(), out.position);
+            writeFully(ByteBuffer.allocate(4).putInt(payloadLength).flip(), payloadStart - 4);
+
+            end = out.position + 4;
+            Location previous = offsets.put(notebook.getId(),
+                    new Location(payloadStart, payloadLength, (int) (end - recordStart)));
+            garbageBytes += previous != null ? previous.recordLength : 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Notebook read(String id) throws IOException {
+        ByteBuffer payload;
+        lock.readLock().lock();
+        try {
+            Location location = offsets.get(id);
+            if (location == null) {
+                throw new IOException("Notebook not found: " + id);
+            }
+            payload = readFully(location.offset, location.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+        try (JsonReader reader = gson.newJsonReader(new InputStreamReader(
+                NotebookCompression.decompress(new ByteArrayInputStream(payload.array())), StandardCharsets.UTF_8))) {
+            return gson.fromJson(reader, Notebook.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed notebook record " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean exists(String id) {
+        lock.readLock().lock();
+        try {
+            return offsets.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The record offset; every write appends a new record
+     */
+    @Override
+    public long version(String id) {
+        lock.readLock().lock();
+        try {
+            Location location = offsets.get(id);
+            return location != null ? location.offset : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        checkWritable();
+        lock.writeLock().lock();
+        try {
+            Location previous = offsets.get(id);
+            if (previous == null) {
+                return;
+            }
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            ByteBuffer record = ByteBuffer.allocate(3 + idBytes.length + 8)
+                    .put(RECORD_DELETE).putShort((short) idBytes.length).put(idBytes)
+                    .putInt(0).putInt((int) crc.getValue()).flip();
+            writeFully(record, end);
+            end += record.capacity();
+            offsets.remove(id);
+            garbageBytes += previous.recordLength + record.capacity();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> listIds() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(offsets.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the log with only live records and start a new generation
+     */
+    public void compact() throws IOException {
+        checkWritable();
+        lock.writeLock().lock();
+        try {
+            Path compactFile = dataFile.resolveSibling(dataFile.getFileName() + ".compacting");
+            long newGeneration = ThreadLocalRandom.current().nextLong();
+            Map<String, Location> compacted = new HashMap<>();
+            try (FileChannel target = FileChannel.open(compactFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE).putLong(DATA_MAGIC).putLong(newGeneration).flip();
+                while (header.hasRemaining()) {
+                    target.write(header);
+                }
+                for (Map.Entry<String, Location> entry : offsets.entrySet()) {
+                    Location location = entry.getValue();
+                    long recordStart = location.offset + location.length + 4 - location.recordLength;
+                    long newStart = target.position();
+                    long copied = 0;
+                    while (copied < location.recordLength) {
+                        copied += channel.transferTo(recordStart + copied, location.recordLength - copied, target);
+                    }
+                    compacted.put(entry.getKey(), new Location(newStart + (location.offset - recordStart),
+                            location.length, location.recordLength));
+                }
+                target.force(true);
+            }
+            channel.close();
+            Files.move(compactFile, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            generation = newGeneration;
+            offsets.clear();
+            offsets.putAll(compacted);
+            end = channel.size();
+            garbageBytes = 0;
+            writeIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (!writable) {
+            throw new IOException("Notebook store is in use by another Lecturly window and is read-only here");
+        }
+    }
+
+    /**
+     * Whether this process holds the store's lock; a read-only store cannot be written
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    private boolean shouldCompact() {
+        return garbageBytes > MIN_COMPACTION_GARBAGE && garbageBytes > end - garbageBytes;
+    }
+
+    /**
+     * Persist the offset map so the next open only scans newer records
+     */
+    private void writeIndex() throws IOException {
+        int size = INDEX_HEADER_SIZE;
+        List<byte[]> ids = new ArrayList<>(offsets.size());
+        for (String id : offsets.keySet()) {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            ids.add(bytes);
+            size += 2 + bytes.length + 16;
+        }
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel indexChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putLong(INDEX_MAGIC).putLong(generation).putLong(end).putLong(garbageBytes).putInt(offsets.size());
+            int i = 0;
+            for (Location location : offsets.values()) {
+                byte[] id = ids.get(i++);
+                buffer.putShort((short) id.length).put(id)
+                        .putLong(location.offset).putInt(location.length).putInt(location.recordLength);
+            }
+            buffer.force();
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!channel.isOpen()) {
+                return;
+            }
+            if (!writable) {
+                channel.close();
+            } else if (shouldCompact()) {
+                compact();
+                channel.close();
+            } else {
+                channel.force(true);
+                writeIndex();
+                channel.close();
+            }
+        } finally {
+            lockChannel.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int checksum(long position, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(Math.max(length, 1), WRITE_BUFFER_SIZE));
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of store");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+            remaining -= read;
+        }
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of store");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Where a live notebook's payload sits in the log
+     */
+    private static class Location {
+        private final long offset;
+        private final int length;
+        private final int recordLength;
+
+        Location(long offset, int length, int recordLength) {
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+
+    /**
+     * Writes sequentially from a position in the log, checksumming as it goes
+     */
+    private class PositionalOutputStream extends OutputStream {
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        PositionalOutputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            crc.update(bytes, offset, length);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.example.lecturly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory-resident filter over notebook names for type-ahead.
+ *
+ * A query word matches a name if it starts one of the name's words (looked up
+ * in a prefix trie) or, from three characters on, appears anywhere in the name
+ * (candidates from trigram postings, then checked). Every query word must match.
+ * Renamed and removed notebooks are retired in place and the structures are
+ * rebuilt once retired entries outnumber live ones.
+ */
+class NameFilter {
+    private static final int MIN_REBUILD_RETIRED = 1024;
+
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final BitSet live = new BitSet();
+    private TrieNode root = new TrieNode();
+    private Map<String, DocList> trigrams = new HashMap<>();
+
+    /**
+     * Add or rename a notebook
+     */
+    void put(String id, String name) {
+        String lowerName = name != null ? name.toLowerCase(Locale.ROOT) : "";
+        Integer existing = docNumbers.get(id);
+        if (existing != null) {
+            if (names.get(existing).equals(lowerName)) {
+                return;
+            }
+            live.clear(existing);
+        }
+        int doc = ids.size();
+        ids.add(id);
+        names.add(lowerName);
+        docNumbers.put(id, doc);
+        live.set(doc);
+        index(doc, lowerName);
+        maybeRebuild();
+    }
+
+    void remove(String id) {
+        Integer doc = docNumbers.remove(id);
+        if (doc != null) {
+            live.clear(doc);
+            maybeRebuild();
+        }
+    }
+
+    void clear() {
+        docNumbers.clear();
+        ids.clear();
+        names.clear();
+        live.clear();
+        root = new TrieNode();
+        trigrams = new HashMap<>();
+    }
+
+    /**
+     * Ids of notebooks whose name matches every word of the query; null if the query has no words
+     */
+    Set<String> filter(String query) {
+        List<String> tokens = TextTokenizer.tokenize(query);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        BitSet matches = (BitSet) live.clone();
+        for (String token : tokens) {
+            BitSet tokenMatches = new BitSet();
+            TrieNode node = root.find(token);
+            if (node != null) {
+                node.docs.addTo(tokenMatches);
+            }
+            if (token.length() >= 3) {
+                addInfixMatches(token, tokenMatches);
+            }
+            matches.and(tokenMatches);
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        Set<String> result = new HashSet<>(Math.max(16, matches.cardinality() * 2));
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            result.add(ids.get(doc));
+        }
+        return result;
+    }
+
+    /**
+     * Check the names posted under the token's rarest trigram
+     */
+    private void addInfixMatches(String token, BitSet matches) {
+        DocList rarest = null;
+        for (int i = 0; i + 3 <= token.length(); i++) {
+            DocList list = trigrams.get(token.substring(i, i + 3));
+            if (list == null) {
+                return;
+            }
+            if (rarest == null || list.size < rarest.size) {
+                rarest = list;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int doc = rarest.docs[i];
+            if (live.get(doc) && names.get(doc).contains(token)) {
+                matches.set(doc);
+            }
+        }
+    }
+
+    private void index(int doc, String lowerName) {
+        for (String word : TextTokenizer.tokenize(lowerName)) {
+            TrieNode node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.child(word.charAt(i));
+                node.docs.add(doc);
+            }
+        }
+        for (int i = 0; i + 3 <= lowerName.length(); i++) {
+            trigrams.computeIfAbsent(lowerName.substring(i, i + 3), t -> new DocList()).add(doc);
+        }
+    }
+
+    private void maybeRebuild() {
+        int retired = ids.size() - docNumbers.size();
+        if (retired < MIN_REBUILD_RETIRED || retired < docNumbers.size()) {
+            return;
+        }
+        List<String> liveIds = new ArrayList<>();
+        List<String> liveNames = new ArrayList<>();
+        for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+            liveIds.add(ids.get(doc));
+            liveNames.add(names.get(doc));
+        }
+        clear();
+        for (int i = 0; i < liveIds.size(); i++) {
+            ids.add(liveIds.get(i));
+            names.add(liveNames.get(i));
+            docNumbers.put(liveIds.get(i), i);
+            live.set(i);
+            index(i, liveNames.get(i));
+        }
+    }
+
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private final DocList docs = new DocList();
+
+        TrieNode child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insertAt = -i - 1;
+            TrieNode node = new TrieNode();
+            keys = insert(keys, insertAt, c);
+            TrieNode[] grown = new TrieNode[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, insertAt);
+            grown[insertAt] = node;
+            System.arraycopy(children, insertAt, grown, insertAt + 1, children.length - insertAt);
+            children = grown;
+            return node;
+        }
+
+        TrieNode find(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                int index = Arrays.binarySearch(node.keys, prefix.charAt(i));
+                node = index >= 0 ? node.children[index] : null;
+            }
+            return node;
+        }
+
+        private static char[] insert(char[] array, int index, char value) {
+            char[] grown = new char[array.length + 1];
+            System.arraycopy(array, 0, grown, 0, index);
+            grown[index] = value;
+            System.arraycopy(array, index, grown, index + 1, array.length - index);
+            return grown;
+        }
+    }
+
+    /**
+     * Increasing document numbers, each at most once
+     */
+    private static class DocList {
+        private int[] docs = new int[2];
+        private int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(docs[i]);
+            }
+        }
+    }
+}
@@ -7,13 +7,16 @@ import java.util.List;
 import java.util.UUID;
 
 /**
- * Represents a notebook containing notes and chat history
+ * Represents a notebook containing notes and chat history.
+ * Mutators lock the notebook so it can be serialized from the storage I/O thread.
  */
 public class Notebook {
     private String id;
     private String name;
     private String notes;
     private List<ChatMessage> chatHistory;
+    // Backend jobs still generating notes for this notebook, so they can be picked up after a restart
+    private List<String> pendingAudioJobs;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -22,6 +25,7 @@ public class Notebook {
         this.name = "Untitled Notebook";
         this.notes = "";
         this.chatHistory = new ArrayList<>();
+        this.pendingAudioJobs = new ArrayList<>();
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
@@ -43,7 +47,7 @@ public class Notebook {
         return name;
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
         this.updatedAt = LocalDateTime.now();
     }
@@ -52,7 +56,7 @@ public class Notebook {
         return notes;
     }
 
-    public void setNotes(String notes) {
+    public synchronized void setNotes(String notes) {
         this.notes = notes;
         this.updatedAt = LocalDateTime.now();
     }
@@ -61,16 +65,30 @@ public class Notebook {
         return chatHistory;
     }
 
-    public void setChatHistory(List<ChatMessage> chatHistory) {
+    public synchronized void setChatHistory(List<ChatMessage> chatHistory) {
         this.chatHistory = chatHistory;
         this.updatedAt = LocalDateTime.now();
     }
 
-    public void addChatMessage(ChatMessage message) {
+    public synchronized void addChatMessage(ChatMessage message) {
         this.chatHistory.add(message);
         this.updatedAt = LocalDateTime.now();
     }
 
+    public synchronized void clearChatHistory() {
+        this.chatHistory.clear();
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public List<String> getPendingAudioJobs() {
+        return pendingAudioJobs != null ? pendingAudioJobs : List.of();
+    }
+
+    public synchronized void setPendingAudioJobs(List<String> pendingAudioJobs) {
+        this.pendingAudioJobs = new ArrayList<>(pendingAudioJobs);
+        this.updatedAt = LocalDateTime.now();
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
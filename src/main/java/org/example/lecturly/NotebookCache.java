@@ -0,0 +1,114 @@
+package org.example.lecturly;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of loaded notebooks, weighted by the size of their
+ * notes and chat history. Cached notebooks are the live instances handed to
+ * the UI, so reopening a notebook returns it without reading from disk.
+ */
+public class NotebookCache {
+    private static final long ENTRY_OVERHEAD_BYTES = 512;
+
+    private final long maxWeight;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxWeight approximate memory budget in bytes
+     */
+    public NotebookCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cached notebook, or null on a miss
+     */
+    public synchronized Notebook get(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.notebook;
+    }
+
+    /**
+     * Cache a notebook, or re-weigh it after it changed, evicting the least recently used as needed
+     */
+    public synchronized void put(Notebook notebook) {
+        long entryWeight = weigh(notebook);
+        Entry previous = entries.put(notebook.getId(), new Entry(notebook, entryWeight));
+        weight += entryWeight - (previous != null ? previous.weight : 0);
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && entries.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            if (entry.getValue().notebook == notebook) {
+                continue;
+            }
+            weight -= entry.getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(String id) {
+        Entry removed = entries.remove(id);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Approximate bytes currently held by cached notebooks
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Approximate heap size: two bytes per character of notes and chat content
+     */
+    private static long weigh(Notebook notebook) {
+        long chars;
+        synchronized (notebook) {
+            chars = notebook.getNotes() != null ? notebook.getNotes().length() : 0;
+            for (Notebook.ChatMessage message : notebook.getChatHistory()) {
+                chars += message.getContent() != null ? message.getContent().length() : 0;
+            }
+        }
+        return ENTRY_OVERHEAD_BYTES + 2 * chars;
+    }
+
+    private static class Entry {
+        private final Notebook notebook;
+        private final long weight;
+
+        Entry(Notebook notebook, long weight) {
+            this.notebook = notebook;
+            this.weight = weight;
+        }
+    }
+}
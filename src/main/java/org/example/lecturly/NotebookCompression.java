@@ -0,0 +1,63 @@
+package org.example.lecturly;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP compression for large notebook payloads.
+ *
+ * Compressed payloads are recognised by the GZIP header (0x1f 0x8b), which can
+ * never start a JSON document, so plain files written by older versions load
+ * unchanged and no flag has to be stored next to the data.
+ */
+final class NotebookCompression {
+    /** Notes length above which a notebook is compressed; a negative value disables compression */
+    static final int DEFAULT_THRESHOLD = 8 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private NotebookCompression() {
+    }
+
+    /**
+     * Whether a notebook is large enough to be worth compressing, estimated from its notes
+     * without serializing it first
+     */
+    static boolean shouldCompress(Notebook notebook, int threshold) {
+        if (threshold < 0) {
+            return false;
+        }
+        String notes = notebook.getNotes();
+        return notes != null && notes.length() >= threshold;
+    }
+
+    /**
+     * Wrap a payload stream in a fast GZIP compressor; closing the result finishes the GZIP trailer
+     */
+    static OutputStream compress(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    /**
+     * Return a stream of the plain payload, decompressing it if it starts with a GZIP header
+     */
+    static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        return buffered;
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.lecturly;
+
+import java.io.IOException;
+
+/**
+ * Thrown when saving a notebook that another process changed since it was loaded
+ */
+public class NotebookConflictException extends IOException {
+    private final String notebookId;
+
+    public NotebookConflictException(String notebookId) {
+        super("Notebook " + notebookId + " was changed by another window");
+        this.notebookId = notebookId;
+    }
+
+    public String getNotebookId() {
+        return notebookId;
+    }
+}
@@ -17,6 +17,9 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -51,13 +54,16 @@ public class NotebookController {
     private NotebookStorageService storageService;
     private AudioProcessingService audioService;
     private GeminiChatService chatService;
+    private CompletableFuture<String> pendingReply;
     private ScheduledExecutorService executorService;
     private File selectedFile;
     private boolean isConnected = false;
+    private final NotebookStorageService.NotebookChangeListener changeListener =
+            (id, kind) -> Platform.runLater(() -> onNotebookChanged(id, kind));
 
     @FXML
     public void initialize() {
-        storageService = new NotebookStorageService();
+        storageService = NotebookStorageService.getInstance();
         audioService = new AudioProcessingService();
         executorService = Executors.newScheduledThreadPool(2);
         
@@ -74,6 +80,7 @@ public class NotebookController {
                 // Enable chat buttons if API key is present
                 sendButton.setDisable(false);
                 clearButton.setDisable(false);
+                GeminiChatService.warmUp();
                 
                 // Update notes context if chat service exists
                 if (chatService != null) {
@@ -103,6 +110,8 @@ public class NotebookController {
 
     public void setNotebook(Notebook notebook) {
         this.notebook = notebook;
+        storageService.removeChangeListener(changeListener);
+        storageService.addChangeListener(changeListener);
         notebookNameLabel.setText(notebook.getName());
         notesArea.setText(notebook.getNotes());
         
@@ -116,15 +125,22 @@ public class NotebookController {
             addSystemMessage("Chat with your notes! Ask questions about the content.");
         }
         
+        resumeNotesJobs();
+        
         // If API key is available, enable chat buttons
         String apiKey = apiKeyField.getText().trim();
         if (!apiKey.isEmpty()) {
             sendButton.setDisable(false);
             clearButton.setDisable(false);
+            GeminiChatService.warmUp();
             
             // If chat history exists, restore it
             if (!notebook.getChatHistory().isEmpty()) {
                 try {
+                    if (chatService != null) {
+                        // Reloaded from another window; the new chat caches the notes afresh
+                        chatService.close();
+                    }
                     chatService = new GeminiChatService(apiKey);
                     // Set notes context
                     String notes = notesArea.getText().trim();
@@ -140,10 +156,83 @@ public class NotebookController {
         }
     }
 
+    /**
+     * React to this notebook being changed in another window
+     */
+    private void onNotebookChanged(String id, NotebookStorageService.ChangeKind kind) {
+        if (notebook == null || !notebook.getId().equals(id)) {
+            return;
+        }
+        switch (kind) {
+            case CONFLICT -> resolveConflict();
+            case DELETED -> {
+                statusLabel.setText("⚠ Deleted in another window");
+                statusLabel.setStyle("-fx-text-fill: #f85149; -fx-font-family: 'Barlow Condensed';");
+            }
+            case CHANGED -> {
+                if (notesArea.getText().equals(notebook.getNotes()) && !storageService.hasPendingWrite(id)) {
+                    // No local edits, so just show the other window's version
+                    reloadNotebook();
+                    statusLabel.setText("↻ Updated from another window");
+                    statusLabel.setStyle("-fx-text-fill: #3fb950; -fx-font-family: 'Barlow Condensed';");
+                } else {
+                    statusLabel.setText("⚠ Changed in another window");
+                    statusLabel.setStyle("-fx-text-fill: #d29922; -fx-font-family: 'Barlow Condensed';");
+                }
+            }
+        }
+    }
+
+    /**
+     * Ask whether to overwrite a version saved by another window, or reload it instead
+     */
+    private void resolveConflict() {
+        Alert confirmDialog = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmDialog.setTitle("Notebook Changed");
+        confirmDialog.setHeaderText("\"" + notebook.getName() + "\" was changed in another window.");
+        confirmDialog.setContentText("Overwrite it with your version? Cancel discards your changes and reloads it.");
+
+        confirmDialog.showAndWait().ifPresent(response -> {
+            if (response == ButtonType.OK) {
+                try {
+                    notebook.setNotes(notesArea.getText());
+                    storageService.saveNotebook(notebook, true);
+                } catch (IOException e) {
+                    showError("Failed to save notebook: " + e.getMessage());
+                }
+            } else {
+                reloadNotebook();
+            }
+        });
+    }
+
+    private void reloadNotebook() {
+        try {
+            setNotebook(storageService.loadNotebook(notebook.getId()));
+        } catch (IOException e) {
+            showError("Failed to reload notebook: " + e.getMessage());
+        }
+    }
+
     @FXML
     protected void onBackToDashboard() {
         try {
-            saveNotebook();
+            queueSave();
+            storageService.flush();
+        } catch (NotebookConflictException e) {
+            resolveConflict();
+        } catch (IOException e) {
+            showError("Failed to save notebook: " + e.getMessage());
+            return;
+        }
+        storageService.removeChangeListener(changeListener);
+        if (pendingReply != null) {
+            pendingReply.cancel(true);
+        }
+        if (chatService != null) {
+            chatService.close();
+        }
+        try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("dashboard-view.fxml"));
             Parent root = loader.load();
             
@@ -168,12 +257,24 @@ public class NotebookController {
             notebook.setNotes(notesArea.getText());
             try {
                 storageService.saveNotebook(notebook);
+            } catch (NotebookConflictException e) {
+                resolveConflict();
             } catch (IOException e) {
                 showError("Failed to save notebook: " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Queue a write-behind save if the notes changed; bursts of changes end up as a single write
+     */
+    private void queueSave() {
+        if (notebook != null && !notesArea.getText().equals(notebook.getNotes())) {
+            notebook.setNotes(notesArea.getText());
+            storageService.saveNotebookLater(notebook);
+        }
+    }
+
     @FXML
     protected void onConnect() {
         // Check if FastAPI backend is available
@@ -227,35 +328,142 @@ public class NotebookController {
         uploadButton.setDisable(true);
         browseFileButton.setDisable(true);
         loadingLabel.setText("Processing audio file...");
+        progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
 
+        Notebook target = notebook;
         executorService.execute(() -> {
+            List<String> jobIds;
             try {
-                String notes = audioService.generateNotesFromAudio(selectedFile);
-                Platform.runLater(() -> {
-                    notesArea.setText(notes);
-                    notebook.setNotes(notes);
-                    saveNotebook();
+                jobIds = audioService.submitNotesJobs(selectedFile, uploadProgress());
+            } catch (Exception e) {
+                Platform.runLater(() -> showNotesError("Error generating notes: " + e.getMessage()));
+                return;
+            }
+            // Saved so the notes are picked up when the notebook is opened again, should the app stop first
+            target.setPendingAudioJobs(jobIds);
+            storageService.saveNotebookLater(target);
+            awaitNotesJobs(target, jobIds);
+        });
+    }
+
+    /**
+     * Resume waiting for notes jobs that were still running when the notebook was last open
+     */
+    private void resumeNotesJobs() {
+        List<String> jobIds = notebook.getPendingAudioJobs();
+        if (jobIds.isEmpty()) {
+            return;
+        }
+        loadingBox.setVisible(true);
+        uploadButton.setDisable(true);
+        browseFileButton.setDisable(true);
+        loadingLabel.setText("Resuming note generation...");
+        progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+        awaitNotesJobs(notebook, jobIds);
+    }
+
+    /**
+     * Wait for notes jobs, showing their progress, then put their notes in the notebook.
+     * The wait is shared by every window of this notebook, so reopening it while notes
+     * are generating takes the wait over instead of starting another one.
+     */
+    private void awaitNotesJobs(Notebook target, List<String> jobIds) {
+        audioService.trackNotesJobs(target.getId(), jobIds, jobProgress())
+                .whenComplete((notes, error) -> Platform.runLater(() -> {
+                    if (error instanceof CancellationException) {
+                        // Another window of this notebook is waiting for the jobs now
+                        return;
+                    }
+                    // The notebook may have been reloaded from disk in the meantime
+                    Notebook current = notebook.getId().equals(target.getId()) ? notebook : target;
+                    if (error instanceof IOException) {
+                        // The jobs may well finish without us; they are tracked again next time the notebook is opened
+                        showNotesError("Lost connection to the audio backend: " + error.getMessage()
+                                + "\n\nThe notes will be picked up when this notebook is opened again.");
+                        return;
+                    }
+                    current.setPendingAudioJobs(List.of());
+                    if (error != null) {
+                        // The jobs were already cancelled on the backend
+                        storageService.saveNotebookLater(current);
+                        showNotesError("Error generating notes: " + error.getMessage());
+                        return;
+                    }
+                    if (current == notebook) {
+                        notesArea.setText(notes);
+                        saveNotebook();
+                    } else {
+                        current.setNotes(notes);
+                        storageService.saveNotebookLater(current);
+                    }
+                    executorService.execute(() -> audioService.discardNotesJobs(jobIds));
                     loadingBox.setVisible(false);
-                    uploadButton.setDisable(false);
-                    browseFileButton.setDisable(false);
+                    uploadButton.setDisable(selectedFile == null);
+                    browseFileButton.setDisable(!isConnected);
                     statusLabel.setText("✓ Notes generated successfully");
                     statusLabel.setStyle("-fx-text-fill: #3fb950; -fx-font-family: 'Barlow Condensed';");
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    showError("Error generating notes: " + e.getMessage());
-                    loadingBox.setVisible(false);
-                    uploadButton.setDisable(false);
-                    browseFileButton.setDisable(false);
-                    statusLabel.setText("✗ Error occurred");
-                    statusLabel.setStyle("-fx-text-fill: #f85149; -fx-font-family: 'Barlow Condensed';");
-                });
+                }));
+    }
+
+    private void showNotesError(String message) {
+        showError(message);
+        loadingBox.setVisible(false);
+        uploadButton.setDisable(selectedFile == null);
+        browseFileButton.setDisable(!isConnected);
+        statusLabel.setText("✗ Error occurred");
+        statusLabel.setStyle("-fx-text-fill: #f85149; -fx-font-family: 'Barlow Condensed';");
+    }
+
+    /**
+     * Shows the stage and progress of notes jobs in the loading box, updating it only when they change
+     */
+    private AudioProcessingService.JobListener jobProgress() {
+        String[] shown = {null};
+        return (stage, progress) -> {
+            String text = String.format("%s... %d%%", stage, (int) (progress * 100));
+            if (text.equals(shown[0])) {
+                return;
             }
-        });
+            shown[0] = text;
+            Platform.runLater(() -> {
+                progressIndicator.setProgress(progress);
+                loadingLabel.setText(text);
+            });
+        };
+    }
+
+    /**
+     * Shows upload progress in the loading box, updating it only when the percentage changes
+     */
+    private AudioProcessingService.ProgressListener uploadProgress() {
+        int[] shownPercent = {-1};
+        return (sent, total) -> {
+            int percent = total > 0 ? (int) (sent * 100 / total) : 100;
+            if (percent == shownPercent[0]) {
+                return;
+            }
+            shownPercent[0] = percent;
+            Platform.runLater(() -> {
+                if (sent < total) {
+                    progressIndicator.setProgress(sent / (double) total);
+                    loadingLabel.setText(String.format("Uploading audio... %d%% (%.1f of %.1f MB)",
+                            percent, sent / 1_000_000.0, total / 1_000_000.0));
+                } else {
+                    progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+                    loadingLabel.setText("Generating notes...");
+                }
+            });
+        };
     }
 
     @FXML
     protected void onSendMessage() {
+        // While a reply is coming in, the Send button stops it
+        if (pendingReply != null) {
+            pendingReply.cancel(true);
+            return;
+        }
+
         String apiKey = apiKeyField.getText().trim();
         if (apiKey.isEmpty()) {
             showError("Please enter your Gemini API key first.");
@@ -288,34 +496,49 @@ public class NotebookController {
         }
 
         inputArea.clear();
-        sendButton.setDisable(true);
         addMessageToChat(true, message);
         
         // Use the message as-is, notes context is handled by the service
         String fullMessage = message;
 
-        executorService.execute(() -> {
+        // Show the reply as it streams in
+        HBox responseBox = createMessageBubble(false, "…");
+        messagesContainer.getChildren().add(responseBox);
+        StreamingLabel streamingLabel = new StreamingLabel(messageLabelOf(responseBox));
+        streamingLabel.start();
+
+        CompletableFuture<String> reply = chatService.chatAsync(fullMessage, streamingLabel);
+        pendingReply = reply;
+        sendButton.setText("Stop");
+        reply.whenComplete((response, error) -> Platform.runLater(() -> {
+            pendingReply = null;
+            sendButton.setText("Send");
+            inputArea.requestFocus();
+            if (error instanceof CancellationException) {
+                streamingLabel.stop();
+                messagesContainer.getChildren().remove(responseBox);
+                addSystemMessage("Response stopped.");
+                return;
+            }
+            if (error != null) {
+                streamingLabel.stop();
+                messagesContainer.getChildren().remove(responseBox);
+                showError("Error: " + error.getMessage());
+                return;
+            }
+            streamingLabel.finish(response);
+
+            // Save chat message to notebook (save original user message, not the one with notes context)
+            Notebook.ChatMessage userMessage = new Notebook.ChatMessage("user", message);
+            Notebook.ChatMessage assistantMessage = new Notebook.ChatMessage("assistant", response);
+            notebook.addChatMessage(userMessage);
+            notebook.addChatMessage(assistantMessage);
             try {
-                String response = chatService.chat(fullMessage);
-                Platform.runLater(() -> {
-                    addMessageToChat(false, response);
-                    
-                    // Save chat message to notebook (save original user message, not the one with notes context)
-                    notebook.addChatMessage(new Notebook.ChatMessage("user", message));
-                    notebook.addChatMessage(new Notebook.ChatMessage("assistant", response));
-                    saveNotebook();
-                    
-                    sendButton.setDisable(false);
-                    inputArea.requestFocus();
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    showError("Error: " + e.getMessage());
-                    sendButton.setDisable(false);
-                    inputArea.requestFocus();
-                });
+                storageService.appendChatMessages(notebook, userMessage, assistantMessage);
+            } catch (IOException e) {
+                showError("Failed to save chat message: " + e.getMessage());
             }
-        });
+        }));
     }
 
     @FXML
@@ -323,8 +546,11 @@ public class NotebookController {
         if (chatService != null) {
             chatService.clearHistory();
             messagesContainer.getChildren().clear();
-            notebook.getChatHistory().clear();
-            saveNotebook();
+            try {
+                storageService.clearChatHistory(notebook);
+            } catch (IOException e) {
+                showError("Failed to clear chat history: " + e.getMessage());
+            }
             addSystemMessage("Conversation cleared. Starting fresh!");
         }
     }
@@ -381,6 +607,10 @@ public class NotebookController {
         return hbox;
     }
 
+    private static Label messageLabelOf(HBox messageBox) {
+        return (Label) ((VBox) messageBox.getChildren().get(0)).getChildren().get(0);
+    }
+
     private void showError(String message) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Error");
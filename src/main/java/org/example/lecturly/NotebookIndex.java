@@ -0,0 +1,379 @@
+package org.example.lecturly;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory notebook index backed by an append-only journal.
+ *
+ * The snapshot (notebooks_index.json) keeps the same array format as before.
+ * Every change is appended to notebooks_index.journal as one JSON line, so an
+ * update costs the same no matter how many notebooks exist. Once the journal
+ * grows larger than the live index it is folded back into the snapshot on a
+ * background thread.
+ */
+public class NotebookIndex {
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String COMPACTING_EXTENSION = ".journal.compacting";
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 512;
+    private static final Map<Path, NotebookIndex> OPEN_INDEXES = new HashMap<>();
+    // Tags this process's journal records, so replaying them does not count them twice
+    private static final String WRITER_ID = UUID.randomUUID().toString();
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path compactingFile;
+    private final Gson gson;
+    private final Map<String, NotebookSummary> entries = new HashMap<>();
+    private final NameFilter names = new NameFilter();
+    private final ExecutorService compactionExecutor;
+    private BufferedWriter journal;
+    private Object journalKey;
+    private long replayedUpTo;
+    private int journalRecords;
+    private boolean compacting;
+
+    /**
+     * Get the index for a snapshot file, sharing one instance (and one journal writer) per file
+     */
+    public static synchronized NotebookIndex open(Path snapshotFile, Gson gson) {
+        return OPEN_INDEXES.computeIfAbsent(snapshotFile.toAbsolutePath().normalize(),
+                path -> new NotebookIndex(path, gson));
+    }
+
+    private NotebookIndex(Path snapshotFile, Gson gson) {
+        this.snapshotFile = snapshotFile;
+        String baseName = snapshotFile.getFileName().toString().replaceFirst("\\.json$", "");
+        this.journalFile = snapshotFile.resolveSibling(baseName + JOURNAL_EXTENSION);
+        this.compactingFile = snapshotFile.resolveSibling(baseName + COMPACTING_EXTENSION);
+        this.gson = gson;
+        this.compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "notebook-index-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    /**
+     * Rebuild the in-memory map from the snapshot and replay the journal on top of it
+     */
+    private synchronized void load() {
+        entries.clear();
+        names.clear();
+        if (Files.exists(snapshotFile)) {
+            try {
+                JsonArray indexArray;
+                try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+                    indexArray = JsonParser.parseReader(reader).getAsJsonArray();
+                }
+                for (JsonElement element : indexArray) {
+                    setEntry(NotebookSummary.fromJson(element.getAsJsonObject()));
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to read index snapshot: " + e.getMessage());
+            }
+        }
+
+        // A leftover compacting file means the last compaction did not finish
+        replay(compactingFile, 0, true);
+        long[] result = replay(journalFile, 0, true);
+        journalRecords = (int) result[0];
+        replayedUpTo = result[1];
+        openJournal();
+    }
+
+    private void openJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalKey = fileKey(journalFile);
+        } catch (IOException e) {
+            System.err.println("Failed to open index journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply journal records appended since the last replay. This process's own
+     * records among them were counted when they were appended.
+     */
+    private void replayJournal() {
+        long[] result = replay(journalFile, replayedUpTo, false);
+        journalRecords += (int) result[0];
+        replayedUpTo = result[1];
+    }
+
+    /**
+     * Apply complete journal lines from a position, in order. A trailing line
+     * without a newline is still being written (or was torn by a crash) and is left for later.
+     * @param countOwn whether records written by this process count towards the result
+     * @return records counted and the position after the last complete line
+     */
+    private long[] replay(Path file, long from, boolean countOwn) {
+        if (!Files.exists(file)) {
+            return new long[] {0, from};
+        }
+        int records = 0;
+        long position = from;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= from) {
+                return new long[] {0, from};
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (size - from));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            byte[] bytes = buffer.array();
+            int lineStart = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                    String id = record.get("id").getAsString();
+                    if ("delete".equals(record.get("op").getAsString())) {
+                        removeEntry(id);
+                    } else {
+                        setEntry(NotebookSummary.fromJson(record));
+                    }
+                    if (countOwn || !record.has("writer") || !WRITER_ID.equals(record.get("writer").getAsString())) {
+                        records++;
+                    }
+                } catch (Exception e) {
+                    System.err.println("Skipping corrupt index journal record in " + file.getFileName());
+                }
+            }
+            position = from + lineStart;
+        } catch (IOException e) {
+            System.err.println("Failed to replay index journal: " + e.getMessage());
+        }
+        return new long[] {records, position};
+    }
+
+    /**
+     * Pick up records appended by another Lecturly process. If the journal was
+     * rotated by another process's compaction, the whole index is reloaded.
+     * @return ids whose entry was added, changed or removed
+     */
+    public synchronized Set<String> refresh() {
+        Map<String, NotebookSummary> before = new HashMap<>(entries);
+        Object currentKey = fileKey(journalFile);
+        if (currentKey == null || !currentKey.equals(journalKey)) {
+            load();
+        } else {
+            replayJournal();
+        }
+
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, NotebookSummary> entry : entries.entrySet()) {
+            NotebookSummary previous = before.remove(entry.getKey());
+            if (previous == null || !previous.sameAs(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        changed.addAll(before.keySet());
+        return changed;
+    }
+
+    private void setEntry(NotebookSummary entry) {
+        entries.put(entry.getId(), entry);
+        names.put(entry.getId(), entry.getName());
+    }
+
+    private void removeEntry(String id) {
+        entries.remove(id);
+        names.remove(id);
+    }
+
+    /**
+     * Ids of notebooks whose name matches every word of a type-ahead query,
+     * by word prefix or by substring from three characters on; null if the query has no words
+     */
+    public synchronized Set<String> filterNames(String query) {
+        return names.filter(query);
+    }
+
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    private static Object fileKey(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add or update the entry for a notebook
+     */
+    public synchronized void put(Notebook notebook) throws IOException {
+        NotebookSummary entry = NotebookSummary.of(notebook);
+        JsonObject record = entry.toJson();
+        record.addProperty("op", "put");
+        append(record);
+        setEntry(entry);
+        maybeCompact();
+    }
+
+    /**
+     * Remove the entry for a notebook
+     */
+    public synchronized void remove(String id) throws IOException {
+        if (!entries.containsKey(id)) {
+            return;
+        }
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "delete");
+        record.addProperty("id", id);
+        append(record);
+        removeEntry(id);
+        maybeCompact();
+    }
+
+    public synchronized boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Set<String> ids() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    public synchronized NotebookSummary get(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Entries sorted by most recently updated first
+     */
+    public synchronized List<NotebookSummary> entries() {
+        List<NotebookSummary> result = new ArrayList<>(entries.values());
+        result.sort(Comparator.comparing(NotebookSummary::getUpdatedAt).reversed());
+        return result;
+    }
+
+    private void append(JsonObject record) throws IOException {
+        // Another process's compaction may have rotated the journal since it was opened;
+        // a record appended to the rotated file would be lost once its snapshot is written
+        Object currentKey = fileKey(journalFile);
+        if (currentKey == null || !currentKey.equals(journalKey)) {
+            load();
+        }
+        if (journal == null) {
+            throw new IOException("Index journal is not open");
+        }
+        record.addProperty("writer", WRITER_ID);
+        journal.write(record.toString());
+        journal.newLine();
+        journal.flush();
+        journalRecords++;
+    }
+
+    /**
+     * Fold the journal into the snapshot once it outgrows the live index.
+     * The journal is rotated under the lock; the snapshot is written in the background.
+     */
+    private void maybeCompact() throws IOException {
+        if (compacting || journalRecords < Math.max(MIN_RECORDS_BEFORE_COMPACTION, entries.size())) {
+            return;
+        }
+        journal.close();
+        if (Files.exists(compactingFile)) {
+            // A previous compaction failed; keep its records until a snapshot covers them
+            Files.write(compactingFile, Files.readAllBytes(journalFile), StandardOpenOption.APPEND);
+            Files.delete(journalFile);
+        } else {
+            Files.move(journalFile, compactingFile);
+        }
+        journal = null;
+        openJournal();
+        journalRecords = 0;
+        replayedUpTo = 0;
+        compacting = true;
+
+        List<NotebookSummary> snapshot = new ArrayList<>(entries.values());
+        compactionExecutor.execute(() -> writeSnapshot(snapshot));
+    }
+
+    private void writeSnapshot(List<NotebookSummary> snapshot) {
+        try {
+            JsonArray indexArray = new JsonArray();
+            for (NotebookSummary entry : snapshot) {
+                indexArray.add(entry.toJson());
+            }
+            Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (JsonWriter writer = gson.newJsonWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+                gson.toJson(indexArray, writer);
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(compactingFile);
+        } catch (IOException e) {
+            System.err.println("Failed to compact notebook index: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Flush the journal and stop the compaction thread
+     */
+    public synchronized void close() {
+        synchronized (NotebookIndex.class) {
+            OPEN_INDEXES.remove(snapshotFile.toAbsolutePath().normalize());
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close index journal: " + e.getMessage());
+        }
+        compactionExecutor.shutdown();
+    }
+}
@@ -1,21 +1,33 @@
 package org.example.lecturly;
 
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for saving and loading notebooks from local storage
@@ -23,112 +35,571 @@ import java.util.stream.Collectors;
 public class NotebookStorageService {
     private static final String NOTEBOOKS_DIR = "notebooks";
     private static final String NOTEBOOKS_INDEX_FILE = "notebooks_index.json";
+    private static final String LOG_STORE_FILE = "notebooks.db";
+    private static final String SEARCH_INDEX_FILE = "notebooks_search.idx";
+    private static final String PRETTY_PRINT_PROPERTY = "lecturly.storage.prettyPrint";
+    private static final String BACKEND_PROPERTY = "lecturly.storage.backend";
+    private static final String COMPRESS_ABOVE_PROPERTY = "lecturly.storage.compressAbove";
+    private static final String CACHE_SIZE_PROPERTY = "lecturly.cache.maxBytes";
+    private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+    private static final long WRITE_BEHIND_QUIET_MS = 1000;
+    private static final long WRITE_BEHIND_MAX_DELAY_MS = 5000;
+    // A notebook is re-indexed for search at most this often, however fast chat turns arrive
+    private static final long SEARCH_INDEX_DELAY_MS = 2000;
+    private static NotebookStorageService instance;
     private Gson gson;
     private Path notebooksPath;
+    private StorageBackend backend;
+    private NotebookIndex index;
+    private ChatLogStore chatLog;
+    private SearchIndex searchIndex;
+    private final NotebookCache cache = new NotebookCache(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    private volatile ReconcileReport lastReconcileReport;
+    private final Object writeLock = new Object();
+    // Set under writeLock once the backend is closed; queued saves are refused from then on
+    private volatile boolean closed;
+    private final Map<String, PendingWrite> pendingWrites = new HashMap<>();
+    private final Map<String, Long> knownVersions = new ConcurrentHashMap<>();
+    private final List<NotebookChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private NotebookWatcher watcher;
+    private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "notebook-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Search indexing has its own thread, so it never holds up saves or a flush
+    private final ScheduledExecutorService indexExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "notebook-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Notebook> pendingIndexing = new HashMap<>();
+
+    /**
+     * Process-wide storage service shared by all controllers, so queued writes
+     * have a single owner and loaded notebooks are cached across navigation
+     */
+    public static synchronized NotebookStorageService getInstance() {
+        if (instance == null) {
+            instance = new NotebookStorageService();
+        }
+        return instance;
+    }
 
     public NotebookStorageService() {
-        this.gson = new GsonBuilder()
-                .setPrettyPrinting()
+        this(Paths.get(System.getProperty("user.home"), ".lecturly"), System.getProperty(BACKEND_PROPERTY, "json"));
+    }
+
+    /**
+     * @param baseDir directory holding the notebooks, the index and the chat logs
+     * @param backendType "json" for one file per notebook, "log" for the single-file store
+     */
+    public NotebookStorageService(Path baseDir, String backendType) {
+        this.gson = createGson();
+        Gson lineGson = new GsonBuilder()
                 .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
                 .create();
         
-        // Create notebooks directory in user's home or app directory
-        String userHome = System.getProperty("user.home");
-        this.notebooksPath = Paths.get(userHome, ".lecturly", NOTEBOOKS_DIR);
+        this.notebooksPath = baseDir.resolve(NOTEBOOKS_DIR);
         
         try {
             Files.createDirectories(notebooksPath);
+            this.backend = openBackend(backendType, baseDir, gson);
+            this.searchIndex = new SearchIndex(baseDir.resolve(SEARCH_INDEX_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open notebook storage in " + baseDir, e);
+        }
+        this.index = NotebookIndex.open(baseDir.resolve(NOTEBOOKS_INDEX_FILE), gson);
+        this.chatLog = new ChatLogStore(notebooksPath, lineGson, ioExecutor);
+        try {
+            this.watcher = new NotebookWatcher(this, notebooksPath, index.getJournalFile());
+            watcher.start();
         } catch (IOException e) {
-            System.err.println("Failed to create notebooks directory: " + e.getMessage());
+            System.err.println("Failed to watch notebooks for external changes: " + e.getMessage());
+        }
+        indexExecutor.execute(() -> syncSearchIndex(index.ids(), true));
+    }
+
+    /**
+     * Gson configured for notebook bodies. Chat history lives in a per-notebook
+     * log, so it is left out.
+     */
+    static Gson createGson() {
+        GsonBuilder builder = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .addSerializationExclusionStrategy(new ChatHistoryExclusion());
+        if (Boolean.getBoolean(PRETTY_PRINT_PROPERTY)) {
+            builder.setPrettyPrinting();
         }
+        return builder.create();
+    }
+
+    /**
+     * Open a storage backend by type name under the given base directory
+     */
+    static StorageBackend openBackend(String type, Path baseDir, Gson gson) throws IOException {
+        int compressAbove = Integer.getInteger(COMPRESS_ABOVE_PROPERTY, NotebookCompression.DEFAULT_THRESHOLD);
+        return switch (type) {
+            case "json" -> new JsonDirectoryBackend(baseDir.resolve(NOTEBOOKS_DIR), gson, compressAbove);
+            case "log" -> new LogStructuredBackend(baseDir.resolve(LOG_STORE_FILE), gson, compressAbove);
+            default -> throw new IllegalArgumentException("Unknown storage backend: " + type);
+        };
     }
 
     /**
-     * Save a notebook to disk
+     * Save a notebook to disk now, replacing any queued write for it
      */
     public void saveNotebook(Notebook notebook) throws IOException {
-        Path notebookFile = notebooksPath.resolve(notebook.getId() + ".json");
-        String json = gson.toJson(notebook);
-        Files.writeString(notebookFile, json);
-        updateIndex(notebook);
+        saveNotebook(notebook, false);
+    }
+
+    /**
+     * Save a notebook to disk now, replacing any queued write for it
+     * @param overwriteNewer write even if another process changed the notebook since it was loaded
+     * @throws NotebookConflictException if the stored notebook is newer and overwriteNewer is false
+     */
+    public void saveNotebook(Notebook notebook, boolean overwriteNewer) throws IOException {
+        cancelPendingWrite(notebook.getId());
+        writeNotebook(notebook, overwriteNewer);
+    }
+
+    /**
+     * Queue a notebook for a write-behind save on the I/O thread.
+     * Repeated calls for the same notebook are coalesced into one write once
+     * saves stop for a short quiet period, or after a maximum delay at most.
+     */
+    public void saveNotebookLater(Notebook notebook) {
+        String id = notebook.getId();
+        if (closed) {
+            System.err.println("Not saving notebook " + id + ": notebook storage is closed");
+            return;
+        }
+        synchronized (pendingWrites) {
+            long now = System.currentTimeMillis();
+            PendingWrite pending = pendingWrites.get(id);
+            if (pending == null) {
+                pending = new PendingWrite(notebook, now);
+                pendingWrites.put(id, pending);
+            } else {
+                pending.notebook = notebook;
+                pending.future.cancel(false);
+            }
+            long delay = Math.min(WRITE_BEHIND_QUIET_MS, Math.max(0, pending.queuedAt + WRITE_BEHIND_MAX_DELAY_MS - now));
+            pending.future = ioExecutor.schedule(() -> writePending(id, true), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all queued notebooks and wait for them to reach disk
+     * @throws NotebookConflictException if the only failed write was a notebook changed by another process
+     */
+    public void flush() throws IOException {
+        chatLog.sync();
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            for (PendingWrite pending : pendingWrites.values()) {
+                pending.future.cancel(false);
+            }
+        }
+        // Runs after any write already in progress on the I/O thread
+        Future<Map<String, IOException>> result = ioExecutor.submit(() -> {
+            Map<String, IOException> failed = new HashMap<>();
+            List<String> ids;
+            synchronized (pendingWrites) {
+                ids = new ArrayList<>(pendingWrites.keySet());
+            }
+            for (String id : ids) {
+                IOException failure = writePending(id, false);
+                if (failure != null) {
+                    failed.put(id, failure);
+                }
+            }
+            return failed;
+        });
+        try {
+            Map<String, IOException> failed = result.get();
+            if (failed.size() == 1 && failed.values().iterator().next() instanceof NotebookConflictException conflict) {
+                throw conflict;
+            }
+            if (!failed.isEmpty()) {
+                throw new IOException("Failed to save notebooks: " + String.join(", ", failed.keySet()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing notebooks", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to flush notebooks: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * @param notifyConflict tell listeners when the write is refused because of a newer version on disk
+     * @return the failure, or null if the notebook was written or nothing was queued
+     */
+    private IOException writePending(String id, boolean notifyConflict) {
+        // Taking the queued write under writeLock means a concurrent delete either
+        // cancels it first or runs after it, and never lets it write the notebook back
+        try {
+            synchronized (writeLock) {
+                PendingWrite pending;
+                synchronized (pendingWrites) {
+                    pending = pendingWrites.remove(id);
+                }
+                if (pending == null) {
+                    return null;
+                }
+                if (closed) {
+                    // Queued after the final flush in close()
+                    throw new IOException("notebook storage is closed");
+                }
+                writeNotebook(pending.notebook, false);
+            }
+            return null;
+        } catch (NotebookConflictException e) {
+            System.err.println("Not saving notebook " + id + ": " + e.getMessage());
+            if (notifyConflict) {
+                fireChange(id, ChangeKind.CONFLICT);
+            }
+            return e;
+        } catch (IOException e) {
+            System.err.println("Failed to save notebook " + id + ": " + e.getMessage());
+            return e;
+        }
+    }
+
+    /**
+     * Whether a write-behind save is queued for the notebook
+     */
+    public boolean hasPendingWrite(String id) {
+        synchronized (pendingWrites) {
+            return pendingWrites.containsKey(id);
+        }
+    }
+
+    private void cancelPendingWrite(String id) {
+        synchronized (pendingWrites) {
+            PendingWrite pending = pendingWrites.remove(id);
+            if (pending != null) {
+                pending.future.cancel(false);
+            }
+        }
+    }
+
+    private void writeNotebook(Notebook notebook, boolean overwriteNewer) throws IOException {
+        String id = notebook.getId();
+        synchronized (writeLock) {
+            Long known = knownVersions.get(id);
+            long stored = backend.version(id);
+            if (!overwriteNewer && known != null && stored != -1 && stored != known) {
+                cache.invalidate(id);
+                throw new NotebookConflictException(id);
+            }
+            backend.write(notebook);
+            knownVersions.put(id, backend.version(id));
+            index.put(notebook);
+            cache.put(notebook);
+        }
+        updateSearchIndex(notebook);
+    }
+
+    /**
+     * Append chat messages to the notebook's chat log and update its index entry.
+     * The messages must already have been added to the notebook.
+     */
+    public void appendChatMessages(Notebook notebook, Notebook.ChatMessage... messages) throws IOException {
+        chatLog.append(notebook.getId(), List.of(messages));
+        index.put(notebook);
+        cache.put(notebook);
+        updateSearchIndex(notebook);
+    }
+
+    /**
+     * Clear a notebook's chat history and compact its chat log
+     */
+    public void clearChatHistory(Notebook notebook) throws IOException {
+        notebook.clearChatHistory();
+        chatLog.clear(notebook.getId());
+        index.put(notebook);
+        cache.put(notebook);
+        updateSearchIndex(notebook);
+    }
+
+    /**
+     * Re-index a notebook for search on the index thread. Changes arriving while an
+     * update is scheduled are folded into it.
+     */
+    private void updateSearchIndex(Notebook notebook) {
+        synchronized (pendingIndexing) {
+            if (pendingIndexing.put(notebook.getId(), notebook) == null) {
+                indexExecutor.schedule(() -> indexPending(notebook.getId()), SEARCH_INDEX_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
     /**
-     * Load a notebook by ID
+     * Index the latest state of a notebook queued by updateSearchIndex. Runs on the index thread.
+     */
+    private void indexPending(String id) {
+        Notebook notebook;
+        synchronized (pendingIndexing) {
+            notebook = pendingIndexing.remove(id);
+        }
+        // A notebook deleted since is dropped from search by syncSearchIndex instead
+        if (notebook == null || !index.contains(id)) {
+            return;
+        }
+        try {
+            searchIndex.put(SearchIndex.Document.of(notebook));
+        } catch (IOException e) {
+            System.err.println("Failed to index notebook " + id + " for search: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bring the search index up to date for the given notebooks, reading only
+     * those indexed at an older version (or not at all). Runs on the index thread.
+     * @param fullPass ids holds every notebook, so anything else in the search index is stale
+     */
+    private void syncSearchIndex(Set<String> ids, boolean fullPass) {
+        for (String id : ids) {
+            NotebookSummary summary = index.get(id);
+            try {
+                if (summary == null) {
+                    searchIndex.remove(id);
+                } else if (!String.valueOf(summary.getUpdatedAt()).equals(searchIndex.version(id))) {
+                    Notebook notebook = cache.get(id);
+                    searchIndex.put(SearchIndex.Document.of(notebook != null ? notebook : readNotebook(id)));
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to index notebook " + id + " for search: " + e.getMessage());
+            }
+        }
+        if (fullPass) {
+            for (String id : searchIndex.ids()) {
+                if (!index.contains(id)) {
+                    try {
+                        searchIndex.remove(id);
+                    } catch (IOException e) {
+                        System.err.println("Failed to drop notebook " + id + " from search: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Full-text search over notebook names, notes and chat, best matches first.
+     * Quoted words must match as a phrase. No notebook bodies are loaded.
+     */
+    public List<NotebookSummary> searchNotebooks(String query, int limit) throws IOException {
+        List<NotebookSummary> results = new ArrayList<>();
+        for (String id : searchIndex.search(query, limit)) {
+            NotebookSummary summary = index.get(id);
+            if (summary != null) {
+                results.add(summary);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Load a notebook by ID, from the cache when possible
      */
     public Notebook loadNotebook(String id) throws IOException {
-        Path notebookFile = notebooksPath.resolve(id + ".json");
-        if (!Files.exists(notebookFile)) {
-            throw new IOException("Notebook not found: " + id);
+        Notebook cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Notebook notebook = readNotebook(id);
+        cache.put(notebook);
+        return notebook;
+    }
+
+    /**
+     * Read a notebook from the backend, remembering which version was read
+     */
+    private Notebook readNotebook(String id) throws IOException {
+        long version = backend.version(id);
+        Notebook notebook = attachChatHistory(backend.read(id));
+        if (notebook != null && version != -1) {
+            knownVersions.put(id, version);
+        }
+        return notebook;
+    }
+
+    /**
+     * Cache of loaded notebooks, exposed for its hit and miss counters
+     */
+    public NotebookCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Attach a notebook's chat history from its chat log.
+     * History embedded by older versions is moved into a new log on first load.
+     */
+    private Notebook attachChatHistory(Notebook notebook) throws IOException {
+        if (notebook == null || notebook.getId() == null) {
+            return notebook;
+        }
+        if (chatLog.exists(notebook.getId())) {
+            List<Notebook.ChatMessage> history = chatLog.read(notebook.getId());
+            LocalDateTime updatedAt = notebook.getUpdatedAt();
+            if (!history.isEmpty()) {
+                LocalDateTime lastMessageAt = history.get(history.size() - 1).getTimestamp();
+                if (lastMessageAt != null && lastMessageAt.isAfter(updatedAt)) {
+                    updatedAt = lastMessageAt;
+                }
+            }
+            notebook.setChatHistory(history);
+            notebook.setUpdatedAt(updatedAt);
+        } else if (!notebook.getChatHistory().isEmpty()) {
+            chatLog.rewrite(notebook.getId(), notebook.getChatHistory());
         }
-        String json = Files.readString(notebookFile);
-        return gson.fromJson(json, Notebook.class);
+        return notebook;
     }
 
     /**
-     * Load all notebooks
+     * Load all notebooks in a single pass over the notebooks directory.
+     * Files are parsed in parallel and reconciled against the index: files
+     * missing from the index are added, and index entries without a file are
+     * dropped. The outcome is available from {@link #getLastReconcileReport()}.
      */
     public List<Notebook> loadAllNotebooks() {
-        List<Notebook> notebooks = new ArrayList<>();
+        List<String> ids;
         try {
-            // Ensure directory exists
-            if (!Files.exists(notebooksPath)) {
-                Files.createDirectories(notebooksPath);
-            }
-            
-            // Try to load from index first
-            Path indexFile = notebooksPath.getParent().resolve(NOTEBOOKS_INDEX_FILE);
-            if (Files.exists(indexFile)) {
+            ids = backend.listIds();
+        } catch (IOException e) {
+            System.err.println("Failed to list notebooks: " + e.getMessage());
+            return new ArrayList<>();
+        }
+
+        List<Notebook> parsed = parseInParallel(ids);
+
+        // Dedupe by id and reconcile against the index
+        Set<String> indexedIds = index.ids();
+        Set<String> seen = new HashSet<>();
+        List<Notebook> notebooks = new ArrayList<>(parsed.size());
+        List<String> orphaned = new ArrayList<>();
+        for (Notebook notebook : parsed) {
+            if (!seen.add(notebook.getId())) {
+                continue;
+            }
+            notebooks.add(notebook);
+            if (!indexedIds.contains(notebook.getId())) {
+                orphaned.add(notebook.getId());
+                updateSearchIndex(notebook);
                 try {
-                    String indexJson = Files.readString(indexFile);
-                    JsonArray indexArray = JsonParser.parseString(indexJson).getAsJsonArray();
-                    for (var element : indexArray) {
-                        String id = element.getAsJsonObject().get("id").getAsString();
-                        try {
-                            notebooks.add(loadNotebook(id));
-                        } catch (IOException e) {
-                            System.err.println("Failed to load notebook " + id + ": " + e.getMessage());
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Failed to read index file: " + e.getMessage());
+                    index.put(notebook);
+                } catch (IOException e) {
+                    System.err.println("Failed to index notebook " + notebook.getId() + ": " + e.getMessage());
                 }
             }
-            
-            // Fallback: scan directory for all .json files (skip index file)
-            if (Files.exists(notebooksPath)) {
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String id : indexedIds) {
+            if (!seen.contains(id)) {
+                missing.add(id);
+                indexExecutor.execute(() -> syncSearchIndex(Set.of(id), false));
                 try {
-                    Files.list(notebooksPath)
-                        .filter(path -> path.toString().endsWith(".json"))
-                        .forEach(path -> {
-                            try {
-                                String json = Files.readString(path);
-                                Notebook notebook = gson.fromJson(json, Notebook.class);
-                                // Avoid duplicates
-                                if (notebooks.stream().noneMatch(n -> n.getId().equals(notebook.getId()))) {
-                                    notebooks.add(notebook);
-                                }
-                            } catch (IOException e) {
-                                System.err.println("Failed to load notebook from " + path + ": " + e.getMessage());
-                            }
-                        });
+                    index.remove(id);
                 } catch (IOException e) {
-                    System.err.println("Failed to list notebooks directory: " + e.getMessage());
+                    System.err.println("Failed to drop index entry " + id + ": " + e.getMessage());
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Failed to load notebooks: " + e.getMessage());
         }
-        return notebooks.stream()
-                .sorted((a, b) -> b.getUpdatedAt().compareTo(a.getUpdatedAt()))
-                .collect(Collectors.toList());
+
+        lastReconcileReport = new ReconcileReport(orphaned, missing, ids.size() - parsed.size());
+        if (!lastReconcileReport.isClean()) {
+            System.out.println("Notebook index reconciled: " + lastReconcileReport);
+        }
+
+        notebooks.sort((a, b) -> b.getUpdatedAt().compareTo(a.getUpdatedAt()));
+        return notebooks;
+    }
+
+    /**
+     * Read notebooks on a pool bounded by the number of cores; unreadable ones are skipped
+     */
+    private List<Notebook> parseInParallel(List<String> ids) {
+        List<Notebook> notebooks = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return notebooks;
+        }
+        int threads = Math.min(ids.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Notebook>> futures = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                futures.add(pool.submit(() -> readNotebook(id)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Notebook notebook = futures.get(i).get();
+                    if (notebook != null && notebook.getId() != null) {
+                        notebooks.add(notebook);
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("Failed to load notebook " + ids.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        return notebooks;
+    }
+
+    /**
+     * IDs of every notebook in the backend, whether indexed or not
+     */
+    List<String> listStoredIds() throws IOException {
+        return backend.listIds();
+    }
+
+    /**
+     * Result of the last {@link #loadAllNotebooks()} reconciliation, or null if it has not run
+     */
+    public ReconcileReport getLastReconcileReport() {
+        return lastReconcileReport;
     }
     
+    /**
+     * List notebook metadata straight from the index, most recently updated first.
+     * Use {@link #loadNotebook(String)} to hydrate the full notebook.
+     */
+    public List<NotebookSummary> listNotebookSummaries() {
+        return index.entries();
+    }
+
+    /**
+     * Ids of notebooks whose name matches a type-ahead query, or null to show all.
+     * Answered from memory, fast enough to run on every keystroke.
+     */
+    public Set<String> filterNotebookNames(String query) {
+        return index.filterNames(query);
+    }
+
+    /**
+     * Index entry for one notebook, or null if it is not indexed
+     */
+    public NotebookSummary getNotebookSummary(String id) {
+        return index.get(id);
+    }
+
     /**
      * Initialize with dummy notebooks if none exist
      */
     public void initializeDummyNotebooks() {
         try {
+            if (index.size() > 0) {
+                return;
+            }
+            // No index yet: pick up any notebook files on disk before seeding dummies
             List<Notebook> existing = loadAllNotebooks();
             if (existing.isEmpty()) {
                 // Create 3 dummy notebooks
@@ -155,74 +626,221 @@ public class NotebookStorageService {
      * Delete a notebook
      */
     public void deleteNotebook(String id) throws IOException {
-        Path notebookFile = notebooksPath.resolve(id + ".json");
-        if (Files.exists(notebookFile)) {
-            Files.delete(notebookFile);
+        synchronized (writeLock) {
+            cancelPendingWrite(id);
+            backend.delete(id);
+            knownVersions.remove(id);
+            index.remove(id);
+            cache.invalidate(id);
         }
-        updateIndexAfterDelete(id);
+        chatLog.delete(id);
+        indexExecutor.execute(() -> syncSearchIndex(Set.of(id), false));
     }
 
     /**
-     * Update the index file with notebook metadata
+     * Listen for notebooks changed by other processes and for conflicting write-behind saves.
+     * Listeners are called on the watcher or I/O thread.
      */
-    private void updateIndex(Notebook notebook) throws IOException {
-        Path indexFile = notebooksPath.getParent().resolve(NOTEBOOKS_INDEX_FILE);
-        JsonArray indexArray;
-        
-        if (Files.exists(indexFile)) {
-            String indexJson = Files.readString(indexFile);
-            indexArray = JsonParser.parseString(indexJson).getAsJsonArray();
-            
-            // Remove existing entry if present
-            for (int i = indexArray.size() - 1; i >= 0; i--) {
-                JsonObject element = indexArray.get(i).getAsJsonObject();
-                if (element.get("id").getAsString().equals(notebook.getId())) {
-                    indexArray.remove(i);
-                    break;
-                }
+    public void addChangeListener(NotebookChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(NotebookChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChange(String id, ChangeKind kind) {
+        for (NotebookChangeListener listener : listeners) {
+            try {
+                listener.notebookChanged(id, kind);
+            } catch (RuntimeException e) {
+                System.err.println("Notebook change listener failed: " + e.getMessage());
             }
-        } else {
-            indexArray = new JsonArray();
         }
-        
-        // Add new entry
-        JsonObject entry = new JsonObject();
-        entry.addProperty("id", notebook.getId());
-        entry.addProperty("name", notebook.getName());
-        entry.addProperty("updatedAt", notebook.getUpdatedAt().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-        indexArray.add(entry);
-        
-        Files.writeString(indexFile, gson.toJson(indexArray));
     }
 
     /**
-     * Remove entry from index after deletion
+     * A notebook file was created, replaced or deleted; ignore it if this process wrote it
+     */
+    void onNotebookFileChanged(String id) {
+        synchronized (writeLock) {
+            long stored = backend.version(id);
+            Long known = knownVersions.get(id);
+            if (known == null ? stored == -1 : known == stored) {
+                return;
+            }
+            cache.invalidate(id);
+            if (stored == -1) {
+                knownVersions.remove(id);
+            }
+        }
+        fireChange(id, backend.exists(id) ? ChangeKind.CHANGED : ChangeKind.DELETED);
+    }
+
+    /**
+     * Another process appended to or cleared a chat log
      */
-    private void updateIndexAfterDelete(String id) throws IOException {
-        Path indexFile = notebooksPath.getParent().resolve(NOTEBOOKS_INDEX_FILE);
-        if (!Files.exists(indexFile)) {
+    void onChatLogChanged(String id) {
+        if (!chatLog.isExternallyModified(id)) {
             return;
         }
-        
-        String indexJson = Files.readString(indexFile);
-        JsonArray indexArray = JsonParser.parseString(indexJson).getAsJsonArray();
-        
-        // Remove entry with matching id
-        for (int i = indexArray.size() - 1; i >= 0; i--) {
-            JsonObject element = indexArray.get(i).getAsJsonObject();
-            if (element.get("id").getAsString().equals(id)) {
-                indexArray.remove(i);
-                break;
+        cache.invalidate(id);
+        if (backend.exists(id)) {
+            fireChange(id, ChangeKind.CHANGED);
+        }
+    }
+
+    /**
+     * Another process appended to the index journal; apply only the new records
+     */
+    void onIndexJournalChanged() {
+        Set<String> changed = index.refresh();
+        for (String id : changed) {
+            fireChange(id, index.contains(id) ? ChangeKind.CHANGED : ChangeKind.DELETED);
+        }
+        if (!changed.isEmpty()) {
+            indexExecutor.execute(() -> syncSearchIndex(changed, false));
+        }
+    }
+
+    /**
+     * Events were lost, so drop everything cached and reload the index
+     */
+    void onWatchOverflow() {
+        cache.clear();
+        onIndexJournalChanged();
+    }
+
+    /**
+     * Flush queued writes and close the storage backend, the index and the search index.
+     * Notebooks saved later are not written.
+     */
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        flush();
+        synchronized (writeLock) {
+            closed = true;
+            backend.close();
+        }
+        // Queued search index updates run first
+        Future<?> searchIndexClosed = indexExecutor.submit(() -> {
+            List<String> ids;
+            synchronized (pendingIndexing) {
+                ids = new ArrayList<>(pendingIndexing.keySet());
             }
+            for (String id : ids) {
+                indexPending(id);
+            }
+            searchIndex.close();
+            return null;
+        });
+        try {
+            searchIndexClosed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Failed to close search index: " + e.getCause().getMessage());
+        }
+        // Also lets NotebookIndex.open() on the same file read it afresh, e.g. in StorageMigration
+        index.close();
+    }
+
+    public enum ChangeKind {
+        /** Added or modified by another process */
+        CHANGED,
+        /** Deleted by another process */
+        DELETED,
+        /** A queued save was not written because another process changed the notebook first */
+        CONFLICT
+    }
+
+    /**
+     * Receives notebook changes that did not come from this service
+     */
+    public interface NotebookChangeListener {
+        void notebookChanged(String id, ChangeKind kind);
+    }
+
+    /**
+     * A notebook waiting on the write-behind queue
+     */
+    private static class PendingWrite {
+        private Notebook notebook;
+        private final long queuedAt;
+        private ScheduledFuture<?> future;
+
+        PendingWrite(Notebook notebook, long queuedAt) {
+            this.notebook = notebook;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * Differences found between the notebooks directory and the index
+     */
+    public static class ReconcileReport {
+        private final List<String> orphaned;
+        private final List<String> missing;
+        private final int unreadable;
+
+        public ReconcileReport(List<String> orphaned, List<String> missing, int unreadable) {
+            this.orphaned = orphaned;
+            this.missing = missing;
+            this.unreadable = unreadable;
+        }
+
+        /**
+         * Notebook ids found on disk without an index entry (now indexed)
+         */
+        public List<String> getOrphaned() {
+            return orphaned;
+        }
+
+        /**
+         * Index entries whose notebook file no longer exists (now removed)
+         */
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        /**
+         * Files that could not be parsed as notebooks
+         */
+        public int getUnreadable() {
+            return unreadable;
+        }
+
+        public boolean isClean() {
+            return orphaned.isEmpty() && missing.isEmpty() && unreadable == 0;
+        }
+
+        @Override
+        public String toString() {
+            return orphaned.size() + " orphaned, " + missing.size() + " missing, " + unreadable + " unreadable";
+        }
+    }
+
+    /**
+     * Keeps Notebook.chatHistory out of notebook files; it is stored in the chat log instead
+     */
+    private static class ChatHistoryExclusion implements ExclusionStrategy {
+        @Override
+        public boolean shouldSkipField(FieldAttributes field) {
+            return field.getDeclaringClass() == Notebook.class && field.getName().equals("chatHistory");
+        }
+
+        @Override
+        public boolean shouldSkipClass(Class<?> clazz) {
+            return false;
         }
-        
-        Files.writeString(indexFile, gson.toJson(indexArray));
     }
 
     /**
      * Custom adapter for LocalDateTime serialization
      */
-    private static class LocalDateTimeAdapter implements com.google.gson.JsonSerializer<LocalDateTime>,
+    static class LocalDateTimeAdapter implements com.google.gson.JsonSerializer<LocalDateTime>,
             com.google.gson.JsonDeserializer<LocalDateTime> {
         private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
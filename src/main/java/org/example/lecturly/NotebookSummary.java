@@ -0,0 +1,93 @@
+package org.example.lecturly;
+
+import com.google.gson.JsonObject;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Lightweight notebook metadata served from the index, used for listing
+ * notebooks without loading their notes or chat history
+ */
+public class NotebookSummary {
+    private final String id;
+    private final String name;
+    private final LocalDateTime updatedAt;
+    private final long noteSize;
+    private final int messageCount;
+
+    public NotebookSummary(String id, String name, LocalDateTime updatedAt, long noteSize, int messageCount) {
+        this.id = id;
+        this.name = name;
+        this.updatedAt = updatedAt;
+        this.noteSize = noteSize;
+        this.messageCount = messageCount;
+    }
+
+    /**
+     * Build a summary from a fully loaded notebook
+     */
+    public static NotebookSummary of(Notebook notebook) {
+        String notes = notebook.getNotes();
+        return new NotebookSummary(notebook.getId(), notebook.getName(), notebook.getUpdatedAt(),
+                notes != null ? notes.length() : 0, notebook.getChatHistory().size());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Length of the notes text in characters
+     */
+    public long getNoteSize() {
+        return noteSize;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public String getFormattedUpdatedAt() {
+        return updatedAt.format(DateTimeFormatter.ofPattern("MMM dd, yyyy HH:mm"));
+    }
+
+    /**
+     * Whether both summaries describe the same notebook state
+     */
+    public boolean sameAs(NotebookSummary other) {
+        return id.equals(other.id) && name.equals(other.name) && updatedAt.equals(other.updatedAt)
+                && noteSize == other.noteSize && messageCount == other.messageCount;
+    }
+
+    JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("name", name);
+        json.addProperty("updatedAt", updatedAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        json.addProperty("noteSize", noteSize);
+        json.addProperty("messageCount", messageCount);
+        return json;
+    }
+
+    /**
+     * Read an index record; entries written before sizes were tracked report zero
+     */
+    static NotebookSummary fromJson(JsonObject json) {
+        String name = json.has("name") ? json.get("name").getAsString() : "Untitled Notebook";
+        LocalDateTime updatedAt = json.has("updatedAt")
+                ? LocalDateTime.parse(json.get("updatedAt").getAsString(), DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+                : LocalDateTime.MIN;
+        long noteSize = json.has("noteSize") ? json.get("noteSize").getAsLong() : 0;
+        int messageCount = json.has("messageCount") ? json.get("messageCount").getAsInt() : 0;
+        return new NotebookSummary(json.get("id").getAsString(), name, updatedAt, noteSize, messageCount);
+    }
+}
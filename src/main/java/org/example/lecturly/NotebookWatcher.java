@@ -0,0 +1,104 @@
+package org.example.lecturly;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Watches the notebooks directory and the index journal for changes made by
+ * other processes (a second Lecturly window, a file-sync tool) and hands the
+ * affected notebook ids to the storage service.
+ */
+class NotebookWatcher {
+    private static final String NOTEBOOK_EXTENSION = ".json";
+    private static final String CHAT_LOG_EXTENSION = ".chat.jsonl";
+
+    private final NotebookStorageService service;
+    private final Path notebooksPath;
+    private final Path journalFile;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    NotebookWatcher(NotebookStorageService service, Path notebooksPath, Path journalFile) throws IOException {
+        this.service = service;
+        this.notebooksPath = notebooksPath;
+        this.journalFile = journalFile;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        notebooksPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        journalFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "notebook-watcher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                Set<String> notebooks = new LinkedHashSet<>();
+                Set<String> chatLogs = new LinkedHashSet<>();
+                boolean indexChanged = false;
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (directory.equals(notebooksPath)) {
+                        if (name.endsWith(CHAT_LOG_EXTENSION)) {
+                            chatLogs.add(name.substring(0, name.length() - CHAT_LOG_EXTENSION.length()));
+                        } else if (name.endsWith(NOTEBOOK_EXTENSION)) {
+                            // Temp files end in .tmp and are skipped here
+                            notebooks.add(name.substring(0, name.length() - NOTEBOOK_EXTENSION.length()));
+                        }
+                    } else if (name.equals(journalFile.getFileName().toString())) {
+                        indexChanged = true;
+                    }
+                }
+                key.reset();
+
+                try {
+                    if (overflow) {
+                        service.onWatchOverflow();
+                        continue;
+                    }
+                    for (String id : notebooks) {
+                        service.onNotebookFileChanged(id);
+                    }
+                    for (String id : chatLogs) {
+                        service.onChatLogChanged(id);
+                    }
+                    if (indexChanged) {
+                        service.onIndexJournalChanged();
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to apply external notebook change: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close notebook watcher: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.example.lecturly;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a notebook's notes in a Gemini cachedContents entry, so chat requests
+ * can reference them by name instead of uploading them on every turn.
+ *
+ * An entry is created in the background the first time a system instruction is
+ * asked for, and until it exists callers send the notes inline. When the notes
+ * change, a new entry is created and the old one deleted. Entries close to
+ * expiry have their TTL extended; an entry the server no longer knows is
+ * forgotten with invalidate() and created again on the next request.
+ *
+ * Entries are billed while they live, so close() deletes the entry of a chat
+ * that is done with, and closeAll() those of every chat still open on exit.
+ */
+class NotesContextCache {
+    // Renew the TTL once an entry in use is this close to expiring
+    private static final long RENEW_MARGIN_MS = 5 * 60 * 1000;
+    // Stop using an entry this close to expiring, so it cannot expire mid-request
+    private static final long USE_MARGIN_MS = 30 * 1000;
+    // How long closeAll() waits for the deletes to go through
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+    private static final Set<NotesContextCache> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final ResilientClient httpClient;
+    private final String baseUrl;
+    private final String model;
+    private final String apiKey;
+    private final Duration ttl;
+    private final Duration requestTimeout;
+
+    private String instruction;
+    private String name;
+    private int tokens;
+    private long expiresAt;
+    private String pendingInstruction;
+    private String failedInstruction;
+    private boolean renewing;
+    private boolean closed;
+    // Completes once the entry being created is in place, or deleted if it came too late
+    private CompletableFuture<Void> creation = CompletableFuture.completedFuture(null);
+
+    NotesContextCache(ResilientClient httpClient, String baseUrl, String model, String apiKey, Duration ttl, Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.model = model;
+        this.apiKey = apiKey;
+        this.ttl = ttl;
+        this.requestTimeout = requestTimeout;
+        OPEN.add(this);
+    }
+
+    /**
+     * A live entry and the tokens it holds, which count against the tokens-per-minute
+     * quota of every request that references it
+     */
+    record Entry(String name, int tokens) {
+    }
+
+    /**
+     * The live entry holding this system instruction, or null if there is none yet,
+     * in which case one is being created
+     */
+    synchronized Entry entryFor(String systemInstruction) {
+        if (closed) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (name != null && systemInstruction.equals(instruction) && now < expiresAt - USE_MARGIN_MS) {
+            if (expiresAt - now < RENEW_MARGIN_MS && !renewing) {
+                renew(name);
+            }
+            return new Entry(name, tokens);
+        }
+        // Creation failing once (e.g. too few tokens to cache) is not retried for the same notes
+        if (!systemInstruction.equals(pendingInstruction) && !systemInstruction.equals(failedInstruction)) {
+            create(systemInstruction);
+        }
+        return null;
+    }
+
+    /**
+     * Name of the entry requests currently reference, or null
+     */
+    synchronized String liveName() {
+        return name;
+    }
+
+    /**
+     * Forget an entry the server rejected, e.g. because it expired early or was deleted
+     */
+    synchronized void invalidate(String rejectedName) {
+        if (rejectedName.equals(name)) {
+            name = null;
+            instruction = null;
+        }
+    }
+
+    /**
+     * Delete the live entry, and the one being created if any, and create no more
+     * @return completes once the server has answered the deletes
+     */
+    CompletableFuture<Void> close() {
+        String live;
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.completedFuture(null);
+            }
+            closed = true;
+            live = name;
+            name = null;
+            instruction = null;
+            // An entry still being created no longer matches and is deleted once it exists
+            pending = creation;
+            pendingInstruction = null;
+        }
+        OPEN.remove(this);
+        return CompletableFuture.allOf(live != null ? delete(live) : CompletableFuture.completedFuture(null), pending);
+    }
+
+    /**
+     * Close every cache still open, waiting briefly for the deletes, e.g. when the app stops
+     */
+    static void closeAll() {
+        List<CompletableFuture<Void>> closing = OPEN.stream().map(NotesContextCache::close).toList();
+        try {
+            CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).get(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.err.println("Failed to delete notes context caches: " + e.getMessage());
+        }
+    }
+
+    private void create(String systemInstruction) {
+        pendingInstruction = systemInstruction;
+        JsonObject body = new JsonObject();
+        body.addProperty("model", "models/" + model);
+        JsonObject content = new JsonObject();
+        JsonArray parts = new JsonArray();
+        JsonObject part = new JsonObject();
+        part.addProperty("text", systemInstruction);
+        parts.add(part);
+        content.add("parts", parts);
+        body.add("systemInstruction", content);
+        body.addProperty("ttl", ttl.toSeconds() + "s");
+
+        creation = send("POST", baseUrl + "/cachedContents?key=" + apiKey, body).handle((response, error) -> {
+            String replaced = null;
+            synchronized (this) {
+                if (!systemInstruction.equals(pendingInstruction)) {
+                    // The notes changed again, or the cache was closed, while this was being created
+                    replaced = error == null ? name(response) : null;
+                } else {
+                    pendingInstruction = null;
+                    if (error != null) {
+                        failedInstruction = systemInstruction;
+                        System.err.println("Failed to cache notes context: " + error.getMessage());
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    replaced = name;
+                    name = name(response);
+                    instruction = systemInstruction;
+                    tokens = tokenCount(response, systemInstruction);
+                    expiresAt = expiry(response);
+                }
+            }
+            return replaced != null ? delete(replaced) : CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(deleted -> deleted);
+    }
+
+    private void renew(String entryName) {
+        renewing = true;
+        JsonObject body = new JsonObject();
+        body.addProperty("ttl", ttl.toSeconds() + "s");
+        send("PATCH", baseUrl + "/" + entryName + "?updateMask=ttl&key=" + apiKey, body).whenComplete((response, error) -> {
+            synchronized (this) {
+                renewing = false;
+                if (error != null) {
+                    System.err.println("Failed to extend notes context cache: " + error.getMessage());
+                } else if (entryName.equals(name)) {
+                    expiresAt = expiry(response);
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<Void> delete(String entryName) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + entryName + "?key=" + apiKey))
+                .timeout(requestTimeout)
+                .DELETE()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding(), false, RequestScheduler.Priority.BACKGROUND, 0)
+                .handle((response, error) -> {
+                    if (error != null) {
+                        System.err.println("Failed to delete notes context cache " + entryName + ": " + error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    private CompletableFuture<JsonObject> send(String method, String url, JsonObject body) {
+        String json = body.toString();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(), false,
+                RequestScheduler.Priority.BACKGROUND, TokenEstimator.estimate(json)).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new CompletionException(new GeminiApiException(response.statusCode(), response.body()));
+            }
+            return JsonParser.parseString(response.body()).getAsJsonObject();
+        });
+    }
+
+    private static String name(JsonObject response) {
+        return response.get("name").getAsString();
+    }
+
+    /**
+     * Tokens in a new entry as the API counted them, or as estimated if the response does not say
+     */
+    private static int tokenCount(JsonObject response, String systemInstruction) {
+        if (response.has("usageMetadata") && response.getAsJsonObject("usageMetadata").has("totalTokenCount")) {
+            return response.getAsJsonObject("usageMetadata").get("totalTokenCount").getAsInt();
+        }
+        return TokenEstimator.estimate(systemInstruction);
+    }
+
+    private long expiry(JsonObject response) {
+        if (response.has("expireTime")) {
+            try {
+                return Instant.parse(response.get("expireTime").getAsString()).toEpochMilli();
+            } catch (Exception e) {
+                System.err.println("Unreadable cache expiry: " + response.get("expireTime"));
+            }
+        }
+        return System.currentTimeMillis() + ttl.toMillis();
+    }
+}
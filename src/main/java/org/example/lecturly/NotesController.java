@@ -99,10 +99,11 @@ public class NotesController {
         browseFileButton.setDisable(true);
         outputNotesArea.setText("");
         loadingLabel.setText("Processing audio file with FastAPI backend...");
+        progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
 
         executorService.execute(() -> {
             try {
-                String notes = audioService.generateNotesFromAudio(selectedFile);
+                String notes = audioService.generateNotesFromAudio(selectedFile, uploadProgress());
                 Platform.runLater(() -> {
                     outputNotesArea.setText(notes);
                     loadingBox.setVisible(false);
@@ -124,6 +125,30 @@ public class NotesController {
         });
     }
 
+    /**
+     * Shows upload progress in the loading box, updating it only when the percentage changes
+     */
+    private AudioProcessingService.ProgressListener uploadProgress() {
+        int[] shownPercent = {-1};
+        return (sent, total) -> {
+            int percent = total > 0 ? (int) (sent * 100 / total) : 100;
+            if (percent == shownPercent[0]) {
+                return;
+            }
+            shownPercent[0] = percent;
+            Platform.runLater(() -> {
+                if (sent < total) {
+                    progressIndicator.setProgress(sent / (double) total);
+                    loadingLabel.setText(String.format("Uploading audio... %d%% (%.1f of %.1f MB)",
+                            percent, sent / 1_000_000.0, total / 1_000_000.0));
+                } else {
+                    progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+                    loadingLabel.setText("Generating notes with FastAPI backend...");
+                }
+            });
+        };
+    }
+
     public void onCopyNotes() {
         String notes = outputNotesArea.getText();
         if (!notes.isEmpty()) {
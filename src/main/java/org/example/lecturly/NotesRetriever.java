@@ -0,0 +1,217 @@
+package org.example.lecturly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the passages of a notebook's notes that are relevant to a chat message.
+ *
+ * Notes are split at markdown headings, and long sections at blank lines, so
+ * each chunk stays under one topic. Chunks are scored against the message with
+ * BM25. Updating the notes re-tokenizes only chunks whose text changed, which
+ * keeps it cheap enough to run on every edit.
+ */
+public class NotesRetriever {
+    private static final int MAX_CHUNK_CHARS = 1500;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private List<Chunk> chunks = new ArrayList<>();
+    private final Map<String, Integer> documentFrequencies = new HashMap<>();
+    private long totalLength;
+    private String notes = "";
+
+    /**
+     * Re-chunk the notes, reusing the statistics of unchanged chunks
+     */
+    public synchronized void update(String newNotes) {
+        String text = newNotes != null ? newNotes : "";
+        if (text.equals(notes)) {
+            return;
+        }
+        notes = text;
+        Map<String, List<Chunk>> previous = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            previous.computeIfAbsent(chunk.key(), key -> new ArrayList<>()).add(chunk);
+        }
+
+        List<Chunk> updated = new ArrayList<>();
+        for (String[] section : split(text)) {
+            List<Chunk> unchanged = previous.get(section[0] + "\n" + section[1]);
+            Chunk chunk;
+            if (unchanged != null && !unchanged.isEmpty()) {
+                chunk = unchanged.remove(unchanged.size() - 1);
+            } else {
+                chunk = new Chunk(section[0], section[1]);
+                addStatistics(chunk, 1);
+            }
+            updated.add(chunk);
+        }
+        for (List<Chunk> removed : previous.values()) {
+            for (Chunk chunk : removed) {
+                addStatistics(chunk, -1);
+            }
+        }
+        chunks = updated;
+    }
+
+    private void addStatistics(Chunk chunk, int sign) {
+        for (String term : chunk.termFrequencies.keySet()) {
+            documentFrequencies.merge(term, sign, Integer::sum);
+            if (documentFrequencies.get(term) == 0) {
+                documentFrequencies.remove(term);
+            }
+        }
+        totalLength += sign * (long) chunk.length;
+    }
+
+    /**
+     * The k chunks that best match the query, in their original order; empty if nothing matches
+     */
+    public synchronized List<String> retrieve(String query, int k) {
+        List<String> terms = TextTokenizer.tokenize(query);
+        if (chunks.isEmpty() || terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        double averageLength = Math.max(1.0, (double) totalLength / chunks.size());
+        double[] scores = new double[chunks.size()];
+        for (String term : terms.stream().distinct().toList()) {
+            Integer documentFrequency = documentFrequencies.get(term);
+            if (documentFrequency == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (chunks.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                Integer tf = chunk.termFrequencies.get(term);
+                if (tf != null) {
+                    double norm = K1 * (1 - B + B * chunk.length / averageLength);
+                    scores[i] += idf * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+        }
+
+        Integer[] order = new Integer[chunks.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        List<Integer> selected = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, order.length) && scores[order[i]] > 0; i++) {
+            selected.add(order[i]);
+        }
+        selected.sort(null);
+
+        List<String> result = new ArrayList<>();
+        for (int i : selected) {
+            result.add(chunks.get(i).render());
+        }
+        return result;
+    }
+
+    /**
+     * The first k chunks, for messages that match nothing in particular
+     */
+    public synchronized List<String> leading(int k) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, chunks.size()); i++) {
+            result.add(chunks.get(i).render());
+        }
+        return result;
+    }
+
+    /**
+     * Every heading of the notes, one per line, so the model knows what else the notes cover
+     */
+    public synchronized String outline() {
+        StringBuilder outline = new StringBuilder();
+        for (String line : notes.split("\n")) {
+            if (isHeading(line)) {
+                outline.append(line.strip()).append('\n');
+            }
+        }
+        return outline.toString();
+    }
+
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Split notes into (heading path, body) sections at markdown headings, and long sections at blank lines
+     */
+    private static List<String[]> split(String text) {
+        List<String[]> sections = new ArrayList<>();
+        List<String> headings = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (String line : text.split("\n", -1)) {
+            if (isHeading(line)) {
+                addSections(sections, String.join(" > ", headings), body);
+                body.setLength(0);
+                int level = 0;
+                while (level < line.length() && line.charAt(level) == '#') {
+                    level++;
+                }
+                while (headings.size() >= level) {
+                    headings.remove(headings.size() - 1);
+                }
+                headings.add(line.strip());
+            } else {
+                body.append(line).append('\n');
+            }
+        }
+        addSections(sections, String.join(" > ", headings), body);
+        return sections;
+    }
+
+    private static void addSections(List<String[]> sections, String heading, StringBuilder body) {
+        String text = body.toString().strip();
+        if (text.isEmpty()) {
+            return;
+        }
+        StringBuilder part = new StringBuilder();
+        for (String paragraph : text.split("\n\\s*\n")) {
+            if (part.length() > 0 && part.length() + paragraph.length() > MAX_CHUNK_CHARS) {
+                sections.add(new String[] {heading, part.toString()});
+                part.setLength(0);
+            }
+            if (part.length() > 0) {
+                part.append("\n\n");
+            }
+            part.append(paragraph);
+        }
+        sections.add(new String[] {heading, part.toString()});
+    }
+
+    private static boolean isHeading(String line) {
+        return line.startsWith("#") && line.replaceFirst("^#+", "").startsWith(" ");
+    }
+
+    private static class Chunk {
+        private final String heading;
+        private final String text;
+        private final Map<String, Integer> termFrequencies = new HashMap<>();
+        private final int length;
+
+        Chunk(String heading, String text) {
+            this.heading = heading;
+            this.text = text;
+            List<String> tokens = TextTokenizer.tokenize(heading + "\n" + text);
+            for (String token : tokens) {
+                termFrequencies.merge(token, 1, Integer::sum);
+            }
+            this.length = tokens.size();
+        }
+
+        String key() {
+            return heading + "\n" + text;
+        }
+
+        String render() {
+            return heading.isEmpty() ? text : heading + "\n" + text;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.lecturly;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Joins the notes generated for consecutive, overlapping segments of one recording
+ * into a single document.
+ *
+ * The first segment's title is kept and the later ones dropped. Because the segments
+ * overlap, the start of each segment's notes tends to repeat points from the end of
+ * the previous one; lines there that say the same thing as a line near the end of
+ * the notes so far are left out.
+ */
+final class NotesStitcher {
+    // How many lines at the start of a segment's notes may repeat the previous segment
+    private static final int OVERLAP_LINES = 40;
+    // Shorter lines (e.g. "## Summary" or "---") are structure rather than content and always kept
+    private static final int MIN_DUPLICATE_LENGTH = 12;
+
+    private NotesStitcher() {
+    }
+
+    static String stitch(List<String> parts) {
+        StringBuilder notes = new StringBuilder();
+        for (String part : parts) {
+            if (notes.isEmpty()) {
+                notes.append(part.strip());
+                continue;
+            }
+            String[] lines = part.strip().split("\n");
+            Set<String> recent = recentLines(notes.toString());
+            StringBuilder kept = new StringBuilder();
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i];
+                if (i == 0 && line.startsWith("# ")) {
+                    continue;
+                }
+                if (i < OVERLAP_LINES && recent.contains(normalize(line))) {
+                    continue;
+                }
+                kept.append(line).append('\n');
+            }
+            String text = kept.toString().strip();
+            if (!text.isEmpty()) {
+                notes.append("\n\n").append(text);
+            }
+        }
+        return notes.toString();
+    }
+
+    /**
+     * Normalized forms of the last lines of the notes, leaving out lines too short to compare
+     */
+    private static Set<String> recentLines(String notes) {
+        String[] lines = notes.split("\n");
+        Set<String> recent = new HashSet<>();
+        for (int i = Math.max(0, lines.length - OVERLAP_LINES); i < lines.length; i++) {
+            String normalized = normalize(lines[i]);
+            if (normalized.length() >= MIN_DUPLICATE_LENGTH) {
+                recent.add(normalized);
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * A line without markdown markup, punctuation and case, so the same point written
+     * as a bullet in one segment and a numbered item in the next still matches
+     */
+    private static String normalize(String line) {
+        return line.replaceFirst("^\\s*(#+|[-*+>]|\\d+[.)])\\s*", "")
+                .replaceAll("[*_`]", "")
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .strip()
+                .toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.lecturly;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps a request body publisher and reports how many bytes have been handed to
+ * the HTTP client. The count starts over each time the body is sent again, e.g. on
+ * a retry.
+ */
+class ProgressBodyPublisher implements HttpRequest.BodyPublisher {
+    private final HttpRequest.BodyPublisher body;
+    private final long offset;
+    private final long total;
+    private final AudioProcessingService.ProgressListener listener;
+
+    ProgressBodyPublisher(HttpRequest.BodyPublisher body, long total, AudioProcessingService.ProgressListener listener) {
+        this(body, 0, total, listener);
+    }
+
+    /**
+     * @param offset bytes sent before this body, e.g. by earlier chunks of the same file
+     * @param total size to report progress against
+     */
+    ProgressBodyPublisher(HttpRequest.BodyPublisher body, long offset, long total,
+                          AudioProcessingService.ProgressListener listener) {
+        this.body = body;
+        this.offset = offset;
+        this.total = total;
+        this.listener = listener;
+    }
+
+    @Override
+    public long contentLength() {
+        return body.contentLength();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        body.subscribe(new Flow.Subscriber<>() {
+            private long sent;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                sent += item.remaining();
+                subscriber.onNext(item);
+                listener.onProgress(Math.min(total, offset + sent), total);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+}
@@ -0,0 +1,274 @@
+package org.example.lecturly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces requests to one rate-limited API so they stay under its requests-per-minute
+ * and tokens-per-minute quotas, instead of being sent and rejected with 429.
+ *
+ * Each quota is a token bucket that holds a minute's worth and refills continuously.
+ * Requests wait in two lanes, and an interactive request always goes before a
+ * background one, so generating notes cannot starve the chat. A 429 that gets
+ * through anyway pauses the whole queue for as long as the server asked.
+ */
+public final class RequestScheduler {
+    private static final String REQUESTS_PROPERTY = "lecturly.gemini.requestsPerMinute";
+    private static final String TOKENS_PROPERTY = "lecturly.gemini.tokensPerMinute";
+    // Free tier limits for gemini-2.5-flash
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 10;
+    private static final int DEFAULT_TOKENS_PER_MINUTE = 250_000;
+    private static final double MS_PER_MINUTE = 60_000;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "request-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final RequestScheduler GEMINI = new RequestScheduler("Gemini",
+            Integer.getInteger(REQUESTS_PROPERTY, DEFAULT_REQUESTS_PER_MINUTE),
+            Integer.getInteger(TOKENS_PROPERTY, DEFAULT_TOKENS_PER_MINUTE));
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private final String name;
+    private final int requestsPerMinute;
+    private final int tokensPerMinute;
+    private final List<ArrayDeque<Waiter>> lanes = new ArrayList<>();
+
+    private double requestsAvailable;
+    private double tokensAvailable;
+    private long lastRefill = System.currentTimeMillis();
+    private long pausedUntil;
+    private ScheduledFuture<?> wakeUp;
+    private long wakeUpAt;
+
+    private final long[] granted = new long[Priority.values().length];
+    private final long[] waitedMillis = new long[Priority.values().length];
+    private final int[] maxQueueDepth = new int[Priority.values().length];
+    private long pauses;
+
+    /**
+     * Scheduler for everything that ends up calling the Gemini API, directly or through the audio backend
+     */
+    public static RequestScheduler gemini() {
+        return GEMINI;
+    }
+
+    /**
+     * @param requestsPerMinute requests allowed per minute, or 0 for no limit
+     * @param tokensPerMinute tokens allowed per minute, or 0 for no limit
+     */
+    public RequestScheduler(String name, int requestsPerMinute, int tokensPerMinute) {
+        this.name = name;
+        this.requestsPerMinute = Math.max(0, requestsPerMinute);
+        this.tokensPerMinute = Math.max(0, tokensPerMinute);
+        this.requestsAvailable = this.requestsPerMinute;
+        this.tokensAvailable = this.tokensPerMinute;
+        for (int i = 0; i < Priority.values().length; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Wait for room to send one request of an estimated size. Cancelling the returned
+     * future gives up the place in the queue.
+     */
+    public CompletableFuture<Void> acquire(Priority priority, int tokens) {
+        Waiter waiter = new Waiter(priority, cost(tokens));
+        synchronized (this) {
+            ArrayDeque<Waiter> lane = lanes.get(priority.ordinal());
+            lane.add(waiter);
+            maxQueueDepth[priority.ordinal()] = Math.max(maxQueueDepth[priority.ordinal()], lane.size());
+        }
+        waiter.future.whenComplete((ignored, error) -> {
+            if (waiter.future.isCancelled()) {
+                synchronized (this) {
+                    lanes.get(priority.ordinal()).remove(waiter);
+                }
+                dispatch();
+            }
+        });
+        dispatch();
+        return waiter.future;
+    }
+
+    /**
+     * Take room for a request only if it is free right now and nobody is waiting,
+     * e.g. for a hedged copy that is not worth queueing for
+     */
+    public synchronized boolean tryAcquire(int tokens) {
+        refill(System.currentTimeMillis());
+        for (ArrayDeque<Waiter> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        if (System.currentTimeMillis() < pausedUntil || !hasRoom(cost(tokens))) {
+            return false;
+        }
+        take(cost(tokens));
+        return true;
+    }
+
+    /**
+     * Hold every queued request back for a while, after the server answered 429
+     */
+    public void pause(long millis) {
+        synchronized (this) {
+            long until = System.currentTimeMillis() + millis;
+            if (until <= pausedUntil) {
+                return;
+            }
+            pausedUntil = until;
+            pauses++;
+            // Whatever was left in the buckets evidently was not there upstream
+            requestsAvailable = 0;
+            tokensAvailable = 0;
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            refill(now);
+            long waitMillis = 0;
+            while (waitMillis == 0) {
+                Waiter next = nextWaiter();
+                if (next == null) {
+                    break;
+                }
+                if (now < pausedUntil) {
+                    waitMillis = pausedUntil - now;
+                } else if (hasRoom(next.tokens)) {
+                    lanes.get(next.priority.ordinal()).poll();
+                    take(next.tokens);
+                    granted[next.priority.ordinal()]++;
+                    waitedMillis[next.priority.ordinal()] += now - next.enqueuedAt;
+                    ready.add(next);
+                } else {
+                    waitMillis = millisUntilRoom(next.tokens);
+                }
+            }
+            if (waitMillis > 0) {
+                scheduleWakeUp(now + waitMillis);
+            }
+        }
+        for (Waiter waiter : ready) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private Waiter nextWaiter() {
+        for (ArrayDeque<Waiter> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return lane.peek();
+            }
+        }
+        return null;
+    }
+
+    private void scheduleWakeUp(long at) {
+        if (wakeUp != null && !wakeUp.isDone() && wakeUpAt <= at) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUpAt = at;
+        wakeUp = TIMER.schedule(this::wake, Math.max(1, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void wake() {
+        synchronized (this) {
+            wakeUp = null;
+        }
+        dispatch();
+    }
+
+    private void refill(long now) {
+        double elapsedMinutes = (now - lastRefill) / MS_PER_MINUTE;
+        lastRefill = now;
+        requestsAvailable = Math.min(requestsPerMinute, requestsAvailable + elapsedMinutes * requestsPerMinute);
+        tokensAvailable = Math.min(tokensPerMinute, tokensAvailable + elapsedMinutes * tokensPerMinute);
+    }
+
+    private boolean hasRoom(int tokens) {
+        return (requestsPerMinute == 0 || requestsAvailable >= 1)
+                && (tokensPerMinute == 0 || tokensAvailable >= tokens);
+    }
+
+    private void take(int tokens) {
+        requestsAvailable -= 1;
+        tokensAvailable -= tokens;
+    }
+
+    private long millisUntilRoom(int tokens) {
+        double requestWait = requestsPerMinute == 0 ? 0 : (1 - requestsAvailable) / requestsPerMinute * MS_PER_MINUTE;
+        double tokenWait = tokensPerMinute == 0 ? 0 : (tokens - tokensAvailable) / tokensPerMinute * MS_PER_MINUTE;
+        return Math.max(1, (long) Math.ceil(Math.max(requestWait, tokenWait)));
+    }
+
+    /**
+     * A request larger than a whole minute's quota would wait forever; it waits for a full bucket instead
+     */
+    private int cost(int tokens) {
+        return tokensPerMinute == 0 ? 0 : Math.max(0, Math.min(tokens, tokensPerMinute));
+    }
+
+    public synchronized int getQueueDepth(Priority priority) {
+        return lanes.get(priority.ordinal()).size();
+    }
+
+    public synchronized int getMaxQueueDepth(Priority priority) {
+        return maxQueueDepth[priority.ordinal()];
+    }
+
+    public synchronized long getGranted(Priority priority) {
+        return granted[priority.ordinal()];
+    }
+
+    /**
+     * Average time requests of a priority spent queued, in milliseconds
+     */
+    public synchronized long getAverageWaitMillis(Priority priority) {
+        long count = granted[priority.ordinal()];
+        return count == 0 ? 0 : waitedMillis[priority.ordinal()] / count;
+    }
+
+    /**
+     * One line of queue counters, for logs
+     */
+    public synchronized String metricsSummary() {
+        StringBuilder summary = new StringBuilder(name).append(" scheduler:");
+        for (Priority priority : Priority.values()) {
+            summary.append(' ').append(priority.name().toLowerCase()).append(' ')
+                    .append(getGranted(priority)).append(" sent (avg wait ").append(getAverageWaitMillis(priority))
+                    .append(" ms, max queue ").append(getMaxQueueDepth(priority)).append("),");
+        }
+        return summary.append(' ').append(pauses).append(" pauses after 429").toString();
+    }
+
+    private static class Waiter {
+        private final Priority priority;
+        private final int tokens;
+        private final long enqueuedAt = System.currentTimeMillis();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(Priority priority, int tokens) {
+            this.priority = priority;
+            this.tokens = tokens;
+        }
+    }
+}
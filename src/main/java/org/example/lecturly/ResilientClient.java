@@ -0,0 +1,450 @@
+package org.example.lecturly;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to one upstream service with retries, optional hedging and a
+ * circuit breaker.
+ *
+ * Connection errors and 429/500/502/503/504 answers are retried up to
+ * lecturly.http.maxAttempts times, waiting with decorrelated jitter and at least
+ * as long as a Retry-After header asks. With -Dlecturly.http.hedge=true, a
+ * request that may be hedged and is still waiting past the 95th percentile of
+ * recent attempt latencies gets a second copy sent; the first answer wins and
+ * the other is cancelled. After several upstream failures in a row the breaker
+ * opens and requests fail fast with CircuitOpenException, until a single trial
+ * request succeeds.
+ *
+ * Every attempt first waits for its turn in the RequestScheduler, so retries and
+ * hedged copies count against the same quota as everything else.
+ */
+public class ResilientClient {
+    private static final String MAX_ATTEMPTS_PROPERTY = "lecturly.http.maxAttempts";
+    private static final String HEDGE_PROPERTY = "lecturly.http.hedge";
+    private static final int DEFAULT_MAX_ATTEMPTS = 4;
+    private static final long BASE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 20_000;
+    // A Retry-After longer than this is not waited for; the answer goes back to the caller
+    private static final long MAX_RETRY_AFTER_MS = 60_000;
+    private static final int FAILURES_TO_OPEN = 5;
+    private static final long OPEN_MS = 30_000;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_SAMPLES_TO_HEDGE = 20;
+
+    private static final ResilientClient GEMINI = new ResilientClient("Gemini", HttpClients.gemini(),
+            RequestScheduler.gemini(), Integer.getInteger(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS),
+            Boolean.getBoolean(HEDGE_PROPERTY));
+    // The backend spends the same Gemini quota on every audio job
+    private static final ResilientClient BACKEND = new ResilientClient("Audio backend", HttpClients.backend(),
+            RequestScheduler.gemini(), Integer.getInteger(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS), false);
+
+    private final String service;
+    private final HttpClient client;
+    private final RequestScheduler scheduler;
+    private final int maxAttempts;
+    private final boolean hedging;
+
+    private int consecutiveFailures;
+    private long openUntil;
+    // The request let through while the breaker is half open, or null
+    private Call<?> trialCall;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private long requests;
+    private long attempts;
+    private long retries;
+    private long hedges;
+    private long hedgeWins;
+    private long failures;
+    private long rejected;
+    private long breakerOpens;
+
+    public static ResilientClient gemini() {
+        return GEMINI;
+    }
+
+    public static ResilientClient backend() {
+        return BACKEND;
+    }
+
+    public ResilientClient(String service, HttpClient client, RequestScheduler scheduler, int maxAttempts, boolean hedging) {
+        this.service = service;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.hedging = hedging;
+    }
+
+    /**
+     * Send a small interactive request, retrying as described above
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler, boolean hedge) {
+        return sendAsync(request, handler, hedge, RequestScheduler.Priority.INTERACTIVE, 0);
+    }
+
+    /**
+     * Send a request, retrying as described above. Cancelling the returned future
+     * cancels the attempt in flight and any pending retry.
+     * @param hedge whether a second copy may be sent; the handler must then be usable twice
+     * @param priority lane to wait in for the rate limit, or null for requests that do not count against it
+     * @param tokens estimated tokens the request uses, for the tokens-per-minute limit
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                            boolean hedge, RequestScheduler.Priority priority, int tokens) {
+        Call<T> call = new Call<>(request, handler, hedge && hedging, priority, tokens);
+        synchronized (this) {
+            requests++;
+        }
+        call.result.whenComplete((response, error) -> {
+            if (call.result.isCancelled()) {
+                call.cancelInFlight();
+            }
+        });
+        startRound(call);
+        return call.result;
+    }
+
+    private <T> void startRound(Call<T> call) {
+        if (call.result.isDone()) {
+            endTrial(call);
+            return;
+        }
+        long retryIn = acquirePermit(call);
+        if (retryIn > 0) {
+            synchronized (this) {
+                rejected++;
+            }
+            fail(call, new CircuitOpenException(service, retryIn));
+            return;
+        }
+        if (call.priority == null) {
+            startAttempt(call);
+            return;
+        }
+        CompletableFuture<Void> turn = scheduler.acquire(call.priority, call.tokens);
+        call.track(turn);
+        if (call.result.isCancelled()) {
+            turn.cancel(true);
+        }
+        turn.whenComplete((ignored, error) -> {
+            call.untrack(turn);
+            if (error != null) {
+                // Cancelled while queued
+                endTrial(call);
+                return;
+            }
+            startAttempt(call);
+        });
+    }
+
+    private <T> void startAttempt(Call<T> call) {
+        boolean last;
+        synchronized (call) {
+            call.round++;
+            call.pending = 1;
+            last = call.round >= maxAttempts;
+        }
+        launch(call, last, false);
+
+        long hedgeDelay = call.hedge && call.round == 1 ? getLatencyPercentile(0.95, MIN_SAMPLES_TO_HEDGE) : -1;
+        if (hedgeDelay >= 0) {
+            CompletableFuture.delayedExecutor(hedgeDelay, TimeUnit.MILLISECONDS).execute(() -> {
+                synchronized (call) {
+                    if (call.result.isDone() || call.round != 1 || call.pending == 0
+                            || call.priority != null && !scheduler.tryAcquire(call.tokens)) {
+                        return;
+                    }
+                    call.pending++;
+                }
+                synchronized (this) {
+                    hedges++;
+                }
+                launch(call, last, true);
+            });
+        }
+    }
+
+    private <T> void launch(Call<T> call, boolean last, boolean hedged) {
+        synchronized (this) {
+            attempts++;
+        }
+        long start = System.nanoTime();
+        boolean[] retrying = new boolean[1];
+        HttpResponse.BodyHandler<T> handler = responseInfo -> {
+            if (!last && isRetryable(responseInfo.statusCode())
+                    && retryAfterMillis(responseInfo.headers()) <= MAX_RETRY_AFTER_MS) {
+                // This answer will be retried, so its body is not needed
+                retrying[0] = true;
+                return HttpResponse.BodySubscribers.replacing(null);
+            }
+            return call.handler.apply(responseInfo);
+        };
+        CompletableFuture<HttpResponse<T>> exchange = client.sendAsync(call.request, handler);
+        call.track(exchange);
+        if (call.result.isCancelled()) {
+            exchange.cancel(true);
+        }
+        exchange.whenComplete((response, error) ->
+                finished(call, exchange, response, error, retrying[0], start, hedged, last));
+    }
+
+    private <T> void finished(Call<T> call, CompletableFuture<HttpResponse<T>> exchange, HttpResponse<T> response,
+                              Throwable error, boolean retrying, long start, boolean hedged, boolean last) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        call.untrack(exchange);
+        if (cause instanceof CancellationException) {
+            // A losing hedge, or the caller gave up
+            if (call.result.isCancelled()) {
+                endTrial(call);
+            }
+            return;
+        }
+        if (cause == null) {
+            recordLatency((System.nanoTime() - start) / 1_000_000);
+        }
+        recordOutcome(call, cause == null && response.statusCode() < 500);
+        if (cause == null && response.statusCode() == 429) {
+            scheduler.pause(Math.min(MAX_RETRY_AFTER_MS, Math.max(BASE_DELAY_MS, retryAfterMillis(response.headers()))));
+        }
+
+        if (cause == null && !retrying) {
+            synchronized (this) {
+                if (call.result.isDone()) {
+                    return;
+                }
+                if (hedged) {
+                    hedgeWins++;
+                }
+                if (response.statusCode() >= 400) {
+                    failures++;
+                }
+            }
+            call.result.complete(response);
+            call.cancelInFlight();
+            return;
+        }
+        if (cause != null && !(cause instanceof IOException)) {
+            fail(call, cause);
+            return;
+        }
+        synchronized (call) {
+            call.pending--;
+            if (call.pending > 0) {
+                // The other copy of this attempt may still answer
+                return;
+            }
+        }
+        if (last) {
+            fail(call, cause);
+            return;
+        }
+        long delay = call.nextDelay(response != null ? retryAfterMillis(response.headers()) : 0);
+        synchronized (this) {
+            retries++;
+        }
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> startRound(call));
+    }
+
+    private void fail(Call<?> call, Throwable error) {
+        synchronized (this) {
+            if (!call.result.isDone()) {
+                failures++;
+            }
+        }
+        call.result.completeExceptionally(error);
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Wait requested by a Retry-After header, in seconds or as an HTTP date; 0 if there is none
+     */
+    static long retryAfterMillis(HttpHeaders headers) {
+        String value = headers.firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (Exception unparseable) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 0 if a request may go out, otherwise how long the breaker stays open
+     */
+    private synchronized long acquirePermit(Call<?> call) {
+        if (openUntil == 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now < openUntil) {
+            return openUntil - now;
+        }
+        if (trialCall != null && trialCall != call) {
+            return 1000;
+        }
+        // Half open: let a single trial request through
+        trialCall = call;
+        return 0;
+    }
+
+    /**
+     * The caller gave up on a request; if it was the trial, let another one through
+     */
+    private synchronized void endTrial(Call<?> call) {
+        if (trialCall == call) {
+            trialCall = null;
+        }
+    }
+
+    private synchronized void recordOutcome(Call<?> call, boolean healthy) {
+        if (healthy) {
+            consecutiveFailures = 0;
+            openUntil = 0;
+            trialCall = null;
+            return;
+        }
+        consecutiveFailures++;
+        if (trialCall == call || consecutiveFailures >= FAILURES_TO_OPEN) {
+            if (openUntil == 0) {
+                breakerOpens++;
+            }
+            openUntil = System.currentTimeMillis() + OPEN_MS;
+            trialCall = null;
+        }
+    }
+
+    private synchronized void recordLatency(long millis) {
+        latencies[latencyCount % LATENCY_SAMPLES] = millis;
+        latencyCount++;
+    }
+
+    /**
+     * Attempt latency at a percentile (0-1) over recent attempts, or -1 without data
+     */
+    public long getLatencyPercentile(double percentile) {
+        return getLatencyPercentile(percentile, 1);
+    }
+
+    private synchronized long getLatencyPercentile(double percentile, int minSamples) {
+        int samples = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (samples < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getAttempts() {
+        return attempts;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    public synchronized long getHedges() {
+        return hedges;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized boolean isCircuitOpen() {
+        return openUntil != 0;
+    }
+
+    /**
+     * One line of counters and latency percentiles, for logs
+     */
+    public synchronized String metricsSummary() {
+        return service + ": " + requests + " requests, " + attempts + " attempts, " + retries + " retries, "
+                + hedges + " hedges (" + hedgeWins + " won), " + failures + " failed, "
+                + rejected + " rejected by the circuit breaker (opened " + breakerOpens + " times); attempt latency p50 "
+                + getLatencyPercentile(0.5, 1) + " ms, p95 " + getLatencyPercentile(0.95, 1) + " ms, p99 "
+                + getLatencyPercentile(0.99, 1) + " ms";
+    }
+
+    private static class Call<T> {
+        private final HttpRequest request;
+        private final HttpResponse.BodyHandler<T> handler;
+        private final boolean hedge;
+        private final RequestScheduler.Priority priority;
+        private final int tokens;
+        private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        private final List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        private int round;
+        private int pending;
+        private long previousDelay = BASE_DELAY_MS;
+
+        Call(HttpRequest request, HttpResponse.BodyHandler<T> handler, boolean hedge,
+             RequestScheduler.Priority priority, int tokens) {
+            this.request = request;
+            this.handler = handler;
+            this.hedge = hedge;
+            this.priority = priority;
+            this.tokens = tokens;
+        }
+
+        synchronized void track(CompletableFuture<?> exchange) {
+            inFlight.add(exchange);
+        }
+
+        synchronized void untrack(CompletableFuture<?> exchange) {
+            inFlight.remove(exchange);
+        }
+
+        void cancelInFlight() {
+            List<CompletableFuture<?>> exchanges;
+            synchronized (this) {
+                exchanges = new ArrayList<>(inFlight);
+            }
+            for (CompletableFuture<?> exchange : exchanges) {
+                exchange.cancel(true);
+            }
+        }
+
+        /**
+         * Decorrelated jitter: a random wait between the base delay and three times the
+         * previous one, capped, and no shorter than the server asked for
+         */
+        synchronized long nextDelay(long retryAfter) {
+            long upper = Math.max(BASE_DELAY_MS + 1, previousDelay * 3);
+            long delay = Math.min(MAX_DELAY_MS, ThreadLocalRandom.current().nextLong(BASE_DELAY_MS, upper));
+            previousDelay = delay;
+            return Math.max(delay, retryAfter);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.example.lecturly;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Opt-in cache of chat responses, so repeating a question against unchanged
+ * notes skips the API round trip.
+ *
+ * Entries are keyed by a SHA-256 of the model, the system instruction, the
+ * last few turns of history and the message, with whitespace and case
+ * normalized. Recent entries are held in an in-memory LRU; every entry is also
+ * written to ~/.lecturly/response_cache so it survives restarts. Entries
+ * expire after a TTL, and the oldest files are removed once the directory
+ * exceeds its size limit.
+ *
+ * Enable with -Dlecturly.chat.cache=true.
+ */
+public class ResponseCache {
+    private static final String ENABLED_PROPERTY = "lecturly.chat.cache";
+    private static final String TTL_PROPERTY = "lecturly.chat.cache.ttlHours";
+    private static final String MAX_BYTES_PROPERTY = "lecturly.chat.cache.maxBytes";
+    private static final long DEFAULT_TTL_HOURS = 7 * 24;
+    private static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+    private static final int MEMORY_ENTRIES = 256;
+    private static final String EXTENSION = ".json";
+    private static ResponseCache instance;
+
+    private final Path directory;
+    private final long ttlMillis;
+    private final long maxBytes;
+    private final Map<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes = -1;
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    /**
+     * Shared cache, or null unless enabled with -Dlecturly.chat.cache=true
+     */
+    public static synchronized ResponseCache getInstance() {
+        if (instance == null && Boolean.getBoolean(ENABLED_PROPERTY)) {
+            instance = new ResponseCache(Paths.get(System.getProperty("user.home"), ".lecturly", "response_cache"),
+                    Long.getLong(TTL_PROPERTY, DEFAULT_TTL_HOURS) * 3600 * 1000,
+                    Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+        }
+        return instance;
+    }
+
+    public ResponseCache(Path directory, long ttlMillis, long maxBytes) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cache key for a request
+     * @param history the recent turns that shape the answer, oldest first
+     */
+    public static String key(String model, String systemInstruction, List<String> history, String message) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<String> parts = new ArrayList<>();
+            parts.add(model);
+            parts.add(systemInstruction != null ? systemInstruction : "");
+            parts.addAll(history);
+            parts.add(message);
+            for (String part : parts) {
+                byte[] bytes = normalize(part).getBytes(StandardCharsets.UTF_8);
+                // Length-prefix every part so different splits cannot collide
+                digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Lower-case with runs of whitespace collapsed to one space and trimmed
+     */
+    private static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Cached response for a key, or null
+     */
+    public String get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (now - entry.createdAt <= ttlMillis) {
+                    memoryHits++;
+                    return entry.response;
+                }
+                memory.remove(key);
+            }
+        }
+
+        Entry entry = readFromDisk(key, now);
+        synchronized (this) {
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            diskHits++;
+            remember(key, entry);
+            return entry.response;
+        }
+    }
+
+    /**
+     * Cache a response in memory and on disk
+     */
+    public void put(String key, String response) {
+        Entry entry = new Entry(response, System.currentTimeMillis());
+        synchronized (this) {
+            remember(key, entry);
+        }
+        try {
+            Files.createDirectories(directory);
+            JsonObject json = new JsonObject();
+            json.addProperty("createdAt", entry.createdAt);
+            json.addProperty("response", response);
+            Path file = file(key);
+            Path tempFile = directory.resolve(key + EXTENSION + ".tmp");
+            Files.writeString(tempFile, json.toString(), StandardCharsets.UTF_8);
+            // Overwriting an entry only adds the difference in size
+            long replacedBytes = Files.exists(file) ? Files.size(file) : 0;
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evictIfOverLimit(Files.size(file) - replacedBytes);
+        } catch (IOException e) {
+            System.err.println("Failed to write response cache entry: " + e.getMessage());
+        }
+    }
+
+    private void remember(String key, Entry entry) {
+        memory.put(key, entry);
+        if (memory.size() > MEMORY_ENTRIES) {
+            memory.remove(memory.keySet().iterator().next());
+        }
+    }
+
+    private Entry readFromDisk(String key, long now) {
+        Path file = file(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+            Entry entry = new Entry(json.get("response").getAsString(), json.get("createdAt").getAsLong());
+            if (now - entry.createdAt > ttlMillis) {
+                long size = Files.size(file);
+                if (Files.deleteIfExists(file)) {
+                    synchronized (this) {
+                        if (diskBytes >= 0) {
+                            diskBytes -= size;
+                        }
+                    }
+                }
+                return null;
+            }
+            return entry;
+        } catch (Exception e) {
+            System.err.println("Ignoring unreadable response cache entry " + file.getFileName());
+            return null;
+        }
+    }
+
+    /**
+     * Delete expired entries, then the oldest ones, until the directory fits the size limit
+     */
+    private synchronized void evictIfOverLimit(long addedBytes) throws IOException {
+        if (diskBytes >= 0) {
+            diskBytes += addedBytes;
+            if (diskBytes <= maxBytes) {
+                return;
+            }
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).toList();
+        }
+        long now = System.currentTimeMillis();
+        List<CachedFile> live = new ArrayList<>();
+        long total = 0;
+        for (Path file : files) {
+            CachedFile cached = new CachedFile(file, Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            if (now - cached.modified > ttlMillis) {
+                Files.deleteIfExists(file);
+            } else {
+                live.add(cached);
+                total += cached.size;
+            }
+        }
+        live.sort((a, b) -> Long.compare(a.modified, b.modified));
+        for (int i = 0; i < live.size() && total > maxBytes; i++) {
+            Files.deleteIfExists(live.get(i).path);
+            total -= live.get(i).size;
+        }
+        diskBytes = total;
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Fraction of lookups answered from either tier
+     */
+    public synchronized double getHitRate() {
+        long lookups = memoryHits + diskHits + misses;
+        return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    private static class CachedFile {
+        private final Path path;
+        private final long modified;
+        private final long size;
+
+        CachedFile(Path path, long modified, long size) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    private static class Entry {
+        private final String response;
+        private final long createdAt;
+
+        Entry(String response, long createdAt) {
+            this.response = response;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package org.example.lecturly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Full-text index over notebook names, notes and chat messages.
+ *
+ * Postings are kept in an append-only file next to the notebook index. Every
+ * indexed notebook appends one record holding its term list (with frequencies)
+ * followed by the token positions of each term. Opening the index reads only
+ * the term lists to rebuild the in-memory dictionary; positions stay on disk
+ * and are read for the few candidates of a phrase query. Re-indexing a notebook
+ * appends a new record and retires the old one, and the file is compacted once
+ * retired records outweigh live ones.
+ *
+ * Record layout: type (1 byte), id length (2), id (UTF-8), header length (4),
+ * positions length (4), header, CRC32 of the header (4), positions.
+ * The index can always be rebuilt from the notebooks, so writes are not fsynced.
+ */
+public class SearchIndex implements Closeable {
+    private static final byte RECORD_DOCUMENT = 1;
+    private static final byte RECORD_DELETE = 2;
+    private static final int NAME_BOOST = 3;
+    private static final int FIELD_GAP = 8;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final long MIN_COMPACTION_BYTES = 4L * 1024 * 1024;
+    private static final Pattern QUERY_PART = Pattern.compile("\"([^\"]*)\"?|([^\\s\"]+)");
+
+    private final Path file;
+    private final Path lockFile;
+    private FileChannel channel;
+    private final FileChannel lockChannel;
+    private final boolean writable;
+    private long end;
+    private long retiredBytes;
+
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private final List<String> docIds = new ArrayList<>();
+    private final List<String> docVersions = new ArrayList<>();
+    private final BitSet live = new BitSet();
+    private int[] docLengths = new int[64];
+    private long[] recordStarts = new long[64];
+    private int[] recordLengths = new int[64];
+    private long liveTokens;
+    private final Map<String, Postings> terms = new HashMap<>();
+
+    public SearchIndex(Path file) throws IOException {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        Files.createDirectories(file.getParent());
+        // Only one process may append; a second Lecturly window searches what was indexed when it opened
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        writable = lock != null;
+        if (!writable) {
+            System.err.println("Search index is in use by another Lecturly window; opening it read-only");
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        scan();
+    }
+
+    /**
+     * Rebuild the dictionary from the term lists; a torn or corrupt tail is truncated
+     */
+    private void scan() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        while (position < size) {
+            long recordStart = position;
+            try {
+                ByteBuffer prefix = readFully(position, 3);
+                byte type = prefix.get();
+                int idLength = prefix.getShort() & 0xFFFF;
+                String id = new String(readFully(position + 3, idLength).array(), StandardCharsets.UTF_8);
+                position += 3 + idLength;
+                if (type == RECORD_DELETE) {
+                    retire(id);
+                    retiredBytes += position - recordStart;
+                    continue;
+                }
+                if (type != RECORD_DOCUMENT) {
+                    throw new IOException("bad record type");
+                }
+                ByteBuffer lengths = readFully(position, 8);
+                int headerLength = lengths.getInt();
+                int positionsLength = lengths.getInt();
+                long headerStart = position + 8;
+                long positionsStart = headerStart + headerLength + 4;
+                if (headerLength < 0 || positionsLength < 0 || positionsStart + positionsLength > size) {
+                    throw new IOException("truncated record");
+                }
+                ByteBuffer header = readFully(headerStart, headerLength + 4);
+                CRC32 crc = new CRC32();
+                crc.update(header.array(), 0, headerLength);
+                if (header.getInt(headerLength) != (int) crc.getValue()) {
+                    throw new IOException("checksum mismatch");
+                }
+                header.limit(headerLength);
+                position = positionsStart + positionsLength;
+                apply(id, header, positionsStart, recordStart, (int) (position - recordStart));
+            } catch (IOException e) {
+                System.err.println("Truncating search index at " + recordStart + ": " + e.getMessage());
+                if (writable) {
+                    channel.truncate(recordStart);
+                }
+                position = recordStart;
+                break;
+            }
+        }
+        end = position;
+    }
+
+    /**
+     * Add a record's terms to the dictionary under a new document number
+     */
+    private void apply(String id, ByteBuffer header, long positionsStart, long recordStart, int recordLength) {
+        retire(id);
+        int doc = docIds.size();
+        ensureDocCapacity(doc + 1);
+        String version = readString(header);
+        int tokenCount = readVarint(header);
+        int termCount = readVarint(header);
+        for (int i = 0; i < termCount; i++) {
+            String term = readString(header);
+            int freq = readVarint(header);
+            int nameFreq = readVarint(header);
+            long offset = positionsStart + readVarint(header);
+            terms.computeIfAbsent(term, t -> new Postings()).add(doc, freq, nameFreq, offset);
+        }
+        docIds.add(id);
+        docVersions.add(version);
+        docNumbers.put(id, doc);
+        docLengths[doc] = tokenCount;
+        recordStarts[doc] = recordStart;
+        recordLengths[doc] = recordLength;
+        live.set(doc);
+        liveTokens += tokenCount;
+    }
+
+    private void retire(String id) {
+        Integer previous = docNumbers.remove(id);
+        if (previous != null) {
+            live.clear(previous);
+            liveTokens -= docLengths[previous];
+            retiredBytes += recordLengths[previous];
+        }
+    }
+
+    /**
+     * Index a notebook, replacing what was indexed for it before
+     */
+    public synchronized void put(Document document) throws IOException {
+        if (!writable) {
+            return;
+        }
+        // Name tokens come first so name matches can be boosted; fields are spaced so phrases cannot span them
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        List<String> nameTokens = TextTokenizer.tokenize(document.name);
+        int position = addTokens(positions, nameTokens, 0);
+        int nameLength = position;
+        int tokenCount = nameTokens.size();
+        for (String text : document.texts) {
+            List<String> tokens = TextTokenizer.tokenize(text);
+            position = addTokens(positions, tokens, position + FIELD_GAP);
+            tokenCount += tokens.size();
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteArrayOutputStream positionBytes = new ByteArrayOutputStream();
+        writeString(header, document.version);
+        writeVarint(header, tokenCount);
+        writeVarint(header, positions.size());
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            List<Integer> termPositions = entry.getValue();
+            int nameFreq = 0;
+            while (nameFreq < termPositions.size() && termPositions.get(nameFreq) < nameLength) {
+                nameFreq++;
+            }
+            writeString(header, entry.getKey());
+            writeVarint(header, termPositions.size());
+            writeVarint(header, nameFreq);
+            writeVarint(header, positionBytes.size());
+            int previous = 0;
+            for (int termPosition : termPositions) {
+                writeVarint(positionBytes, termPosition - previous);
+                previous = termPosition;
+            }
+        }
+
+        byte[] id = document.id.getBytes(StandardCharsets.UTF_8);
+        byte[] headerArray = header.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(headerArray);
+        ByteBuffer record = ByteBuffer.allocate(3 + id.length + 8 + headerArray.length + 4 + positionBytes.size())
+                .put(RECORD_DOCUMENT).putShort((short) id.length).put(id)
+                .putInt(headerArray.length).putInt(positionBytes.size())
+                .put(headerArray).putInt((int) crc.getValue()).put(positionBytes.toByteArray()).flip();
+        long recordStart = end;
+        writeFully(record, recordStart);
+        end += record.capacity();
+
+        ByteBuffer headerBuffer = ByteBuffer.wrap(headerArray);
+        long positionsStart = recordStart + 3 + id.length + 8 + headerArray.length + 4;
+        apply(document.id, headerBuffer, positionsStart, recordStart, record.capacity());
+        maybeCompact();
+    }
+
+    private static int addTokens(Map<String, List<Integer>> positions, List<String> tokens, int start) {
+        int position = start;
+        for (String token : tokens) {
+            positions.computeIfAbsent(token, t -> new ArrayList<>()).add(position++);
+        }
+        return position;
+    }
+
+    /**
+     * Drop a notebook from the index
+     */
+    public synchronized void remove(String id) throws IOException {
+        if (!writable || !docNumbers.containsKey(id)) {
+            return;
+        }
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(3 + idBytes.length)
+                .put(RECORD_DELETE).putShort((short) idBytes.length).put(idBytes).flip();
+        writeFully(record, end);
+        end += record.capacity();
+        retire(id);
+        retiredBytes += record.capacity();
+        maybeCompact();
+    }
+
+    /**
+     * Version string the notebook was indexed at, or null if it is not indexed
+     */
+    public synchronized String version(String id) {
+        Integer doc = docNumbers.get(id);
+        return doc != null ? docVersions.get(doc) : null;
+    }
+
+    public synchronized Set<String> ids() {
+        return new HashSet<>(docNumbers.keySet());
+    }
+
+    /**
+     * Find notebooks containing every word of the query, best matches first.
+     * Quoted parts must appear as an exact phrase. Ranked with BM25; name matches count extra.
+     * @return notebook ids
+     */
+    public synchronized List<String> search(String query, int limit) throws IOException {
+        List<List<String>> phrases = new ArrayList<>();
+        Set<String> queryTerms = new LinkedHashSet<>();
+        Matcher matcher = QUERY_PART.matcher(query);
+        while (matcher.find()) {
+            List<String> tokens = TextTokenizer.tokenize(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            if (!tokens.isEmpty()) {
+                phrases.add(tokens);
+                queryTerms.addAll(tokens);
+            }
+        }
+        List<String> results = new ArrayList<>();
+        int liveDocs = docNumbers.size();
+        if (queryTerms.isEmpty() || liveDocs == 0) {
+            return results;
+        }
+
+        double averageLength = Math.max(1.0, (double) liveTokens / liveDocs);
+        float[] scores = new float[docIds.size()];
+        int[] matchedTerms = new int[docIds.size()];
+        for (String term : queryTerms) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                return results;
+            }
+            int documentFrequency = 0;
+            for (int i = 0; i < postings.size; i++) {
+                if (live.get(postings.docs[i])) {
+                    documentFrequency++;
+                }
+            }
+            double idf = Math.log(1 + (liveDocs - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < postings.size; i++) {
+                int doc = postings.docs[i];
+                if (!live.get(doc)) {
+                    continue;
+                }
+                double tf = postings.freqs[i] + (NAME_BOOST - 1) * postings.nameFreqs[i];
+                double norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                scores[doc] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+                matchedTerms[doc]++;
+            }
+        }
+
+        // Scores are positive, so their float bits sort like the scores; the document number rides in the low bits
+        long[] candidates = new long[matchedTerms.length];
+        int count = 0;
+        for (int doc = 0; doc < matchedTerms.length; doc++) {
+            if (matchedTerms[doc] == queryTerms.size()) {
+                candidates[count++] = ((long) Float.floatToIntBits(scores[doc]) << 32) | doc;
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+        for (int i = count - 1; i >= 0 && results.size() < limit; i--) {
+            int doc = (int) candidates[i];
+            if (containsPhrases(doc, phrases)) {
+                results.add(docIds.get(doc));
+            }
+        }
+        return results;
+    }
+
+    private boolean containsPhrases(int doc, List<List<String>> phrases) throws IOException {
+        for (List<String> phrase : phrases) {
+            if (phrase.size() < 2) {
+                continue;
+            }
+            int[][] positions = new int[phrase.size()][];
+            for (int i = 0; i < phrase.size(); i++) {
+                positions[i] = readPositions(terms.get(phrase.get(i)), doc);
+            }
+            boolean found = false;
+            for (int start : positions[0]) {
+                int i = 1;
+                while (i < positions.length && Arrays.binarySearch(positions[i], start + i) >= 0) {
+                    i++;
+                }
+                if (i == positions.length) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] readPositions(Postings postings, int doc) throws IOException {
+        int i = Arrays.binarySearch(postings.docs, 0, postings.size, doc);
+        int freq = postings.freqs[i];
+        long offset = postings.offsets[i];
+        ByteBuffer buffer = readFully(offset, (int) Math.min((long) freq * 5, end - offset));
+        int[] positions = new int[freq];
+        int previous = 0;
+        for (int j = 0; j < freq; j++) {
+            previous += readVarint(buffer);
+            positions[j] = previous;
+        }
+        return positions;
+    }
+
+    /**
+     * Rewrite the file with only live records once retired ones take up more space
+     */
+    private void maybeCompact() throws IOException {
+        if (retiredBytes < MIN_COMPACTION_BYTES || retiredBytes < end - retiredBytes) {
+            return;
+        }
+        Path compactFile = file.resolveSibling(file.getFileName() + ".compacting");
+        try (FileChannel target = FileChannel.open(compactFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+                long copied = 0;
+                while (copied < recordLengths[doc]) {
+                    copied += channel.transferTo(recordStarts[doc] + copied, recordLengths[doc] - copied, target);
+                }
+            }
+        }
+        channel.close();
+        Files.move(compactFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        docNumbers.clear();
+        docIds.clear();
+        docVersions.clear();
+        live.clear();
+        terms.clear();
+        liveTokens = 0;
+        retiredBytes = 0;
+        open();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        lockChannel.close();
+    }
+
+    private void ensureDocCapacity(int capacity) {
+        if (capacity > docLengths.length) {
+            int newLength = Math.max(capacity, docLengths.length * 2);
+            docLengths = Arrays.copyOf(docLengths, newLength);
+            recordStarts = Arrays.copyOf(recordStarts, newLength);
+            recordLengths = Arrays.copyOf(recordLengths, newLength);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of search index");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The searchable text of a notebook, copied so it can be indexed off the calling thread
+     */
+    public static class Document {
+        private final String id;
+        private final String version;
+        private final String name;
+        private final List<String> texts = new ArrayList<>();
+
+        private Document(String id, String version, String name) {
+            this.id = id;
+            this.version = version;
+            this.name = name != null ? name : "";
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public static Document of(Notebook notebook) {
+            synchronized (notebook) {
+                Document document = new Document(notebook.getId(), String.valueOf(notebook.getUpdatedAt()), notebook.getName());
+                if (notebook.getNotes() != null) {
+                    document.texts.add(notebook.getNotes());
+                }
+                for (Notebook.ChatMessage message : notebook.getChatHistory()) {
+                    if (message.getContent() != null) {
+                        document.texts.add(message.getContent());
+                    }
+                }
+                return document;
+            }
+        }
+    }
+
+    /**
+     * Documents containing a term, in increasing document number order
+     */
+    private static class Postings {
+        private int size;
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int[] nameFreqs = new int[4];
+        private long[] offsets = new long[4];
+
+        void add(int doc, int freq, int nameFreq, long offset) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+                nameFreqs = Arrays.copyOf(nameFreqs, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            nameFreqs[size] = nameFreq;
+            offsets[size] = offset;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.lecturly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where notebook bodies are persisted. The index, chat logs and write-behind
+ * queue live in {@link NotebookStorageService} and work with any backend.
+ * Implementations must allow concurrent reads.
+ */
+public interface StorageBackend extends Closeable {
+
+    /**
+     * Write the notebook, replacing any previous version
+     */
+    void write(Notebook notebook) throws IOException;
+
+    /**
+     * Read a notebook by ID
+     * @throws IOException if the notebook does not exist or cannot be parsed
+     */
+    Notebook read(String id) throws IOException;
+
+    boolean exists(String id);
+
+    /**
+     * Opaque version of the stored notebook that changes on every write,
+     * including writes by another process, or -1 if it does not exist
+     */
+    long version(String id);
+
+    /**
+     * Delete a notebook; deleting a missing notebook is not an error
+     */
+    void delete(String id) throws IOException;
+
+    /**
+     * IDs of all stored notebooks
+     */
+    List<String> listIds() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,55 @@
+package org.example.lecturly;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Copies every notebook from one storage backend to another.
+ *
+ * Run with Lecturly closed:
+ *   StorageMigration json log [baseDir]
+ * then start Lecturly with -Dlecturly.storage.backend=log. The source data
+ * is left in place so it can be removed once the new store has been checked.
+ */
+public class StorageMigration {
+
+    /**
+     * Migrate all notebooks under baseDir
+     * @return number of notebooks copied
+     */
+    public static int migrate(Path baseDir, String fromType, String toType) throws IOException {
+        if (fromType.equals(toType)) {
+            throw new IllegalArgumentException("Source and target backend are the same: " + fromType);
+        }
+        NotebookStorageService source = new NotebookStorageService(baseDir, fromType);
+        int copied = 0;
+        int failed = 0;
+        try (StorageBackend target = NotebookStorageService.openBackend(toType, baseDir, NotebookStorageService.createGson())) {
+            for (String id : source.listStoredIds()) {
+                try {
+                    // Loading through the service also moves any embedded chat history into its chat log
+                    target.write(source.loadNotebook(id));
+                    copied++;
+                } catch (IOException e) {
+                    failed++;
+                    System.err.println("Failed to migrate notebook " + id + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            source.close();
+        }
+        System.out.println("Migrated " + copied + " notebooks from " + fromType + " to " + toType
+                + (failed > 0 ? " (" + failed + " failed)" : ""));
+        return copied;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: StorageMigration <json|log> <json|log> [baseDir]");
+            System.exit(1);
+        }
+        Path baseDir = args.length > 2 ? Paths.get(args[2]) : Paths.get(System.getProperty("user.home"), ".lecturly");
+        migrate(baseDir, args[0], args[1]);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.lecturly;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Label;
+
+/**
+ * Shows a streamed chat reply in a message label. Text arrives on a background
+ * thread and is buffered; the label is redrawn on animation frames, at most
+ * about 30 times a second, so a fast stream does not flood the FX thread.
+ * Create, start and finish it on the FX thread.
+ */
+class StreamingLabel extends AnimationTimer implements GeminiChatService.StreamListener {
+    private static final long FRAME_INTERVAL_NANOS = 33_000_000L;
+
+    private final Label label;
+    private final StringBuilder text = new StringBuilder();
+    private boolean changed;
+    private long lastFrame;
+
+    StreamingLabel(Label label) {
+        this.label = label;
+    }
+
+    @Override
+    public void onText(String delta) {
+        synchronized (text) {
+            text.append(delta);
+            changed = true;
+        }
+    }
+
+    @Override
+    public void handle(long now) {
+        if (now - lastFrame < FRAME_INTERVAL_NANOS) {
+            return;
+        }
+        String snapshot;
+        synchronized (text) {
+            if (!changed) {
+                return;
+            }
+            snapshot = text.toString();
+            changed = false;
+        }
+        lastFrame = now;
+        label.setText(snapshot);
+    }
+
+    /**
+     * Stop redrawing and show the complete reply
+     */
+    void finish(String finalText) {
+        stop();
+        label.setText(finalText);
+    }
+}
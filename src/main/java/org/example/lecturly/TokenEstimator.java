@@ -0,0 +1,39 @@
+package org.example.lecturly;
+
+/**
+ * Rough local estimate of how many model tokens a text costs, so the chat
+ * history can be budgeted without a countTokens round trip.
+ *
+ * Latin words cost about one token per four characters, punctuation one token
+ * each, and other scripts (CJK and the like) about one token per character.
+ * The estimate leans high, which keeps requests safely under the budget.
+ */
+final class TokenEstimator {
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    static int estimate(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            tokens += (wordLength + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+            wordLength = 0;
+            if (c >= 0x80 && !Character.isLowSurrogate(c)) {
+                tokens++;
+            } else if (!Character.isWhitespace(c) && c < 0x80) {
+                tokens++;
+            }
+        }
+        return tokens + (wordLength + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.lecturly;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Save/load latency and disk footprint of notebook compression, for each backend.
+ *
+ * Not a unit test; run the main method:
+ *   CompressionBenchmark [notebooksPerSize]
+ */
+public class CompressionBenchmark {
+    private static final int[] NOTES_SIZES = {2 * 1024, 32 * 1024, 256 * 1024};
+    private static final String[] WORDS = {"gradient", "descent", "the", "model", "learns", "weights", "by",
+            "minimising", "loss", "over", "training", "data", "**Key point**:", "-", "##", "neural", "network",
+            "layer", "activation", "function", "is", "a", "and", "of", "to", "in", "backpropagation"};
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        Gson gson = NotebookStorageService.createGson();
+        System.out.printf("%-5s %-8s %-5s %12s %12s %14s%n", "store", "notes", "gzip", "save us/op", "load us/op", "bytes on disk");
+        for (String type : new String[] {"json", "log"}) {
+            for (int size : NOTES_SIZES) {
+                List<Notebook> notebooks = generate(count, size);
+                for (boolean compress : new boolean[] {false, true}) {
+                    run(type, size, compress, notebooks, gson);
+                }
+            }
+        }
+    }
+
+    private static void run(String type, int size, boolean compress, List<Notebook> notebooks, Gson gson) throws IOException {
+        Path baseDir = Files.createTempDirectory("lecturly-bench");
+        System.setProperty("lecturly.storage.compressAbove", compress ? "0" : "-1");
+        try (StorageBackend backend = NotebookStorageService.openBackend(type, baseDir, gson)) {
+            // Warm up the JIT on a few notebooks before timing
+            for (int i = 0; i < Math.min(20, notebooks.size()); i++) {
+                backend.write(notebooks.get(i));
+                backend.read(notebooks.get(i).getId());
+            }
+            long start = System.nanoTime();
+            for (Notebook notebook : notebooks) {
+                backend.write(notebook);
+            }
+            long saveNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Notebook notebook : notebooks) {
+                backend.read(notebook.getId());
+            }
+            long loadNanos = System.nanoTime() - start;
+            backend.close();
+            System.out.printf("%-5s %-8s %-5s %12.1f %12.1f %14d%n", type, size / 1024 + " KB", compress,
+                    saveNanos / 1000.0 / notebooks.size(), loadNanos / 1000.0 / notebooks.size(), diskUsage(baseDir));
+        } finally {
+            deleteRecursively(baseDir);
+        }
+    }
+
+    private static List<Notebook> generate(int count, int notesSize) {
+        Random random = new Random(42);
+        List<Notebook> notebooks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder notes = new StringBuilder(notesSize + 32);
+            while (notes.length() < notesSize) {
+                notes.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? "\n" : " ");
+            }
+            Notebook notebook = new Notebook("Lecture " + i);
+            notebook.setNotes(notes.toString());
+            notebooks.add(notebook);
+        }
+        return notebooks;
+    }
+
+    private static long diskUsage(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
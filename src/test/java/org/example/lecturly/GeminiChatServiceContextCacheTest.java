@@ -0,0 +1,145 @@
+package org.example.lecturly;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Long notes kept in a cachedContents entry on {@link GeminiStub}: created, referenced,
+ * replaced when the notes change, extended, sent inline again when the server
+ * forgets the entry, and deleted when the chat is closed
+ */
+class GeminiChatServiceContextCacheTest {
+    private GeminiStub stub;
+    private GeminiChatService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new GeminiStub();
+        // Short enough that every use of an entry extends it
+        stub.setCacheTtlSeconds(120);
+        service = new GeminiChatService("test-key", stub.baseUrl(), GeminiStub.client());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+        stub.close();
+    }
+
+    @Test
+    void cacheEntryLifecycle() throws Exception {
+        service.setNotesContext(longNotes("alpha"));
+        service.chat("first");
+        assertInline(lastModelRequest());
+        String first = awaitSingleEntry(Map.of());
+
+        service.chat("second");
+        assertEquals(first, lastModelRequest().get("cachedContent").getAsString());
+        awaitLogged("PATCH /v1beta/" + first);
+
+        // New notes are sent inline until their entry replaces the old one
+        service.setNotesContext(longNotes("beta"));
+        service.chat("third");
+        assertInline(lastModelRequest());
+        String second = awaitSingleEntry(Map.of(first, ""));
+        assertTrue(stub.cache().get(second).contains("beta"));
+        awaitLogged("DELETE /v1beta/" + first);
+
+        service.chat("fourth");
+        assertEquals(second, lastModelRequest().get("cachedContent").getAsString());
+
+        // The server forgets the entry: the turn is answered with the notes inline
+        stub.expire(second);
+        int before = stub.modelRequests().size();
+        assertEquals("Stub reply", service.chat("fifth"));
+        List<JsonObject> requests = stub.modelRequests();
+        assertEquals(before + 2, requests.size());
+        assertEquals(second, requests.get(before).get("cachedContent").getAsString());
+        assertInline(requests.get(before + 1));
+
+        // ...and a new entry is created on the next turn
+        service.chat("sixth");
+        String third = awaitSingleEntry(Map.of(second, ""));
+        service.chat("seventh");
+        assertEquals(third, lastModelRequest().get("cachedContent").getAsString());
+        assertEquals(14, service.getHistory().size());
+
+        service.close();
+        awaitLogged("DELETE /v1beta/" + third);
+        assertTrue(stub.cache().isEmpty());
+    }
+
+    @Test
+    void closingDeletesTheEntryAndCreatesNoMore() throws Exception {
+        service.setNotesContext(longNotes("gamma"));
+        service.chat("first");
+        // Closed whether or not the entry exists yet; either way it is deleted
+        service.close();
+        await(() -> stub.log().contains("POST /v1beta/cachedContents") && stub.cache().isEmpty(),
+                () -> "the entry was not deleted; the stub saw " + stub.log());
+
+        // A closed chat still answers, with the notes inline
+        service.chat("second");
+        assertInline(lastModelRequest());
+        assertTrue(stub.cache().isEmpty());
+    }
+
+    private static String longNotes(String topic) {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; notes.length() < 8000; i++) {
+            notes.append("## Section ").append(i).append("\n").append(topic).append(" point ").append(i).append(".\n\n");
+        }
+        return notes.toString();
+    }
+
+    private JsonObject lastModelRequest() {
+        List<JsonObject> requests = stub.modelRequests();
+        return requests.get(requests.size() - 1);
+    }
+
+    private static void assertInline(JsonObject request) {
+        assertFalse(request.has("cachedContent"), "expected the notes inline: " + request);
+        assertTrue(request.has("systemInstruction"));
+    }
+
+    /**
+     * Wait until the stub holds exactly one entry, not among the previous ones, and
+     * the service uses it; return its name
+     */
+    private String awaitSingleEntry(Map<String, String> previous) throws InterruptedException {
+        await(() -> {
+            Map<String, String> cache = stub.cache();
+            String name = service.cachedNotesName();
+            return name != null && cache.size() == 1 && cache.containsKey(name) && !previous.containsKey(name);
+        }, () -> "no new cache entry in use; the stub holds " + stub.cache().keySet()
+                + " and the service uses " + service.cachedNotesName());
+        return service.cachedNotesName();
+    }
+
+    private void awaitLogged(String request) throws InterruptedException {
+        await(() -> stub.log().contains(request), () -> request + " was not sent; the stub saw " + stub.log());
+    }
+
+    private static void await(BooleanSupplier condition, Supplier<String> message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(message.get());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.lecturly;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Streamed chat replies, read from server-sent events served by {@link GeminiStub}
+ */
+class GeminiChatServiceStreamingTest {
+    private GeminiStub stub;
+    private GeminiChatService service;
+    private final List<String> deltas = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new GeminiStub();
+        service = new GeminiChatService("test-key", stub.baseUrl(), GeminiStub.client());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+        stub.close();
+    }
+
+    @Test
+    void textArrivesBeforeTheStreamEnds() throws Exception {
+        CountDownLatch firstSeen = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        stub.setModelHandler((exchange, request) -> {
+            OutputStream events = GeminiStub.startEvents(exchange);
+            GeminiStub.sendEvent(events, GeminiStub.reply("Hello ").toString());
+            try {
+                // The rest of the reply waits until the test has seen the first piece
+                finish.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            GeminiStub.sendEvent(events, GeminiStub.reply("world").toString());
+        });
+
+        CompletableFuture<String> reply = service.chatAsync("Hi", text -> {
+            deltas.add(text);
+            firstSeen.countDown();
+        });
+        assertTrue(firstSeen.await(5, TimeUnit.SECONDS), "no text before the stream ended");
+        assertFalse(reply.isDone());
+        assertEquals(List.of("Hello "), deltas);
+
+        finish.countDown();
+        assertEquals("Hello world", reply.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Hello ", "world"), deltas);
+        assertEquals(2, service.getHistory().size());
+    }
+
+    @Test
+    void eventsSpanningSeveralDataLinesAreJoined() throws Exception {
+        stub.setModelHandler((exchange, request) -> {
+            OutputStream events = GeminiStub.startEvents(exchange);
+            String json = GeminiStub.reply("split across lines").toString();
+            int cut = json.indexOf("\"content\"");
+            GeminiStub.sendEvent(events, json.substring(0, cut), json.substring(cut));
+            GeminiStub.sendEvent(events, GeminiStub.reply(", then one line").toString());
+        });
+
+        String reply = service.chatAsync("Hi", deltas::add).get(5, TimeUnit.SECONDS);
+        assertEquals("split across lines, then one line", reply);
+        assertEquals(List.of("split across lines", ", then one line"), deltas);
+    }
+
+    @Test
+    void errorStatusFailsWithGeminiApiException() {
+        stub.setModelHandler((exchange, request) ->
+                GeminiStub.sendJson(exchange, 400, GeminiStub.error(400, "API key not valid")));
+
+        ExecutionException thrown = assertThrows(ExecutionException.class,
+                () -> service.chatAsync("Hi", deltas::add).get(5, TimeUnit.SECONDS));
+        GeminiApiException error = assertInstanceOf(GeminiApiException.class, thrown.getCause());
+        assertEquals(400, error.getStatusCode());
+        assertTrue(error.getMessage().contains("API key not valid"), error.getMessage());
+        assertTrue(deltas.isEmpty());
+        assertTrue(service.getHistory().isEmpty());
+    }
+
+    @Test
+    void cancellingTheCallStopsTheExchange() throws Exception {
+        CountDownLatch disconnected = new CountDownLatch(1);
+        stub.setModelHandler((exchange, request) -> {
+            OutputStream events = GeminiStub.startEvents(exchange);
+            try {
+                for (int i = 0; i < 500; i++) {
+                    GeminiStub.sendEvent(events, GeminiStub.reply("word" + i + " ").toString());
+                    Thread.sleep(20);
+                }
+            } catch (IOException e) {
+                disconnected.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        CountDownLatch firstSeen = new CountDownLatch(1);
+        CompletableFuture<String> reply = service.chatAsync("Hi", text -> {
+            deltas.add(text);
+            firstSeen.countDown();
+        });
+        assertTrue(firstSeen.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(ChatCall.class, reply);
+        assertTrue(reply.cancel(true));
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS), "the stub kept streaming to a cancelled call");
+        int received = deltas.size();
+        Thread.sleep(200);
+        assertEquals(received, deltas.size(), "text arrived after the call was cancelled");
+        assertTrue(reply.isCancelled());
+        assertTrue(service.getHistory().isEmpty());
+    }
+}
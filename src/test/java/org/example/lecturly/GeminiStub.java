@@ -0,0 +1,217 @@
+package org.example.lecturly;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for the Gemini API on a free local port, like dev/gemini_stub.py.
+ *
+ * Model calls are answered by a handler each test sets. The context cache endpoints
+ * keep their entries in memory; a model call referencing an entry that does not
+ * exist is answered 403, as the real API does.
+ */
+final class GeminiStub implements AutoCloseable {
+    /**
+     * Answers a generateContent or streamGenerateContent call
+     */
+    interface ModelHandler {
+        void handle(HttpExchange exchange, JsonObject request) throws IOException;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // Method and path of every request, in the order they were answered
+    private final List<String> log = new CopyOnWriteArrayList<>();
+    private final List<JsonObject> modelRequests = new CopyOnWriteArrayList<>();
+    // Cached system instructions by entry name
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    private volatile ModelHandler modelHandler = (exchange, request) -> sendJson(exchange, 200, reply("Stub reply"));
+    private volatile long cacheTtlSeconds = 3600;
+
+    GeminiStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1beta/", this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/v1beta";
+    }
+
+    /**
+     * A client that sends every request once, without pacing, so tests see each exchange as it happened
+     */
+    static ResilientClient client() {
+        return new ResilientClient("Gemini stub", HttpClients.gemini(), new RequestScheduler("Gemini stub", 0, 0), 1, false);
+    }
+
+    void setModelHandler(ModelHandler handler) {
+        this.modelHandler = handler;
+    }
+
+    /**
+     * TTL the context cache reports for new and extended entries
+     */
+    void setCacheTtlSeconds(long seconds) {
+        this.cacheTtlSeconds = seconds;
+    }
+
+    List<String> log() {
+        return List.copyOf(log);
+    }
+
+    List<JsonObject> modelRequests() {
+        return List.copyOf(modelRequests);
+    }
+
+    Map<String, String> cache() {
+        return Map.copyOf(cache);
+    }
+
+    /**
+     * Drop a cache entry without the client knowing, as if it expired early
+     */
+    void expire(String name) {
+        cache.remove(name);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        try {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            JsonObject request = body.length > 0
+                    ? JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject()
+                    : new JsonObject();
+
+            if (path.endsWith("/cachedContents") && method.equals("POST")) {
+                String name = "cachedContents/" + UUID.randomUUID().toString().substring(0, 12);
+                cache.put(name, instructionText(request.getAsJsonObject("systemInstruction")));
+                sendJson(exchange, 200, cacheEntry(name));
+            } else if (path.contains("/cachedContents/")) {
+                String name = path.substring(path.indexOf("cachedContents/"));
+                if (method.equals("DELETE")) {
+                    cache.remove(name);
+                    sendJson(exchange, 200, new JsonObject());
+                } else if (cache.containsKey(name)) {
+                    sendJson(exchange, 200, cacheEntry(name));
+                } else {
+                    sendJson(exchange, 403, error(403, "CachedContent not found"));
+                }
+            } else {
+                modelRequests.add(request);
+                if (request.has("cachedContent") && !cache.containsKey(request.get("cachedContent").getAsString())) {
+                    sendJson(exchange, 403, error(403, "CachedContent not found (or permission denied)"));
+                } else {
+                    modelHandler.handle(exchange, request);
+                }
+            }
+        } finally {
+            exchange.close();
+            log.add(method + " " + path);
+        }
+    }
+
+    private JsonObject cacheEntry(String name) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("name", name);
+        entry.addProperty("expireTime", Instant.now().plusSeconds(cacheTtlSeconds).toString());
+        JsonObject usage = new JsonObject();
+        usage.addProperty("totalTokenCount", cache.getOrDefault(name, "").length() / 4);
+        entry.add("usageMetadata", usage);
+        return entry;
+    }
+
+    static String instructionText(JsonObject content) {
+        StringBuilder text = new StringBuilder();
+        if (content != null) {
+            for (JsonElement part : content.getAsJsonArray("parts")) {
+                text.append(part.getAsJsonObject().get("text").getAsString());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * A generateContent response, or one streamed event, carrying this text
+     */
+    static JsonObject reply(String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+        JsonObject content = new JsonObject();
+        content.addProperty("role", "model");
+        content.add("parts", parts);
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        JsonArray candidates = new JsonArray();
+        candidates.add(candidate);
+        JsonObject response = new JsonObject();
+        response.add("candidates", candidates);
+        return response;
+    }
+
+    static JsonObject error(int code, String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("code", code);
+        error.addProperty("message", message);
+        JsonObject response = new JsonObject();
+        response.add("error", error);
+        return response;
+    }
+
+    static void sendJson(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, data.length);
+        exchange.getResponseBody().write(data);
+    }
+
+    /**
+     * Start a server-sent event stream; write events to the returned body with {@link #sendEvent}
+     */
+    static OutputStream startEvents(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    /**
+     * Write one event, given as its raw lines (without the "data: " prefix each gets)
+     */
+    static void sendEvent(OutputStream events, String... dataLines) throws IOException {
+        StringBuilder event = new StringBuilder();
+        for (String line : dataLines) {
+            event.append("data: ").append(line).append("\r\n");
+        }
+        event.append("\r\n");
+        events.write(event.toString().getBytes(StandardCharsets.UTF_8));
+        events.flush();
+    }
+}